@@ -0,0 +1,201 @@
+package com.cs.fabric.client;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Looks up the states of a stream of LC references with the chaincode
+ * queryBatch action, one proposal per chunk instead of one per reference.
+ *
+ * References are grouped into chunks bounded in number, which bounds the
+ * response to that many states, and in bytes, which bounds the proposal. At
+ * most <i>parallelism</i> chunks are in flight; when that many are, the
+ * caller blocks until one completes. States are handed to the
+ * listener chunk by chunk as they arrive.
+ */
+public class BatchQuerier {
+
+	/** Maximum number of references per queryBatch call of the chaincode */
+	public static final int MAX_CHUNK_SIZE = 1000;
+	private static final int MAX_CHUNK_BYTES = 64 * 1024;
+
+	private static final Log logger = LogFactory.getLog(BatchQuerier.class);
+
+	private final InvokeChainCode invokeChainCode;
+	private final Executor executor;
+	private final int chunkSize;
+	private final int parallelism;
+
+	/**
+	 * @param invokeChainCode
+	 *            invoker shared by all chunks
+	 * @param executor
+	 *            executor running the blocking query calls
+	 * @param chunkSize
+	 *            maximum number of references per proposal, at most
+	 *            {@link #MAX_CHUNK_SIZE}
+	 * @param parallelism
+	 *            maximum number of chunks in flight
+	 */
+	public BatchQuerier(InvokeChainCode invokeChainCode, Executor executor, int chunkSize, int parallelism) {
+		if (chunkSize < 1 || chunkSize > MAX_CHUNK_SIZE) {
+			throw new IllegalArgumentException(
+					"Chunk size must be between 1 and " + MAX_CHUNK_SIZE + " but was " + chunkSize);
+		}
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be at least 1 but was " + parallelism);
+		}
+		this.invokeChainCode = invokeChainCode;
+		this.executor = executor;
+		this.chunkSize = chunkSize;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Query all references and wait until every chunk has completed.
+	 *
+	 * @param references
+	 * @param listener
+	 *            receives every reference with its state, null if not found,
+	 *            called from the completing thread
+	 * @return aggregate report of the run
+	 * @throws InterruptedException
+	 */
+	public QueryReport query(Iterator<String> references, BiConsumer<String, TradeFinance> listener)
+			throws InterruptedException {
+
+		final QueryReport report = new QueryReport();
+		final Semaphore inFlight = new Semaphore(parallelism);
+		final long start = System.nanoTime();
+
+		while (references.hasNext()) {
+			List<String> chunk = nextChunk(references);
+			inFlight.acquire();
+			report.chunks.incrementAndGet();
+			CompletableFuture<List<TradeFinance>> query;
+			try {
+				query = invokeChainCode.queryTradeFinanceBatchAsync(chunk, executor);
+			} catch (RuntimeException e) {
+				logger.error("Could not query " + chunk.size() + " references from " + chunk.get(0) + ": "
+						+ e.getMessage());
+				report.failed.addAll(chunk);
+				inFlight.release();
+				continue;
+			}
+			query.whenComplete((states, error) -> {
+				try {
+					if (error != null) {
+						if (error instanceof CompletionException && error.getCause() != null) {
+							error = error.getCause();
+						}
+						logger.error("Could not query " + chunk.size() + " references from " + chunk.get(0) + ": "
+								+ error.getMessage());
+						report.failed.addAll(chunk);
+						return;
+					}
+					for (int i = 0; i < chunk.size(); i++) {
+						TradeFinance tradeFinance = states.get(i);
+						(tradeFinance != null ? report.found : report.missing).incrementAndGet();
+						listener.accept(chunk.get(i), tradeFinance);
+					}
+				} catch (RuntimeException e) {
+					logger.error("State listener failed for chunk starting at " + chunk.get(0), e);
+				} finally {
+					inFlight.release();
+				}
+			});
+		}
+
+		// Wait for the tail of the run to drain.
+		inFlight.acquire(parallelism);
+		inFlight.release(parallelism);
+
+		report.elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		logger.info("Batch query finished. " + report);
+		return report;
+	}
+
+	private List<String> nextChunk(Iterator<String> references) {
+		List<String> chunk = new ArrayList<>(chunkSize);
+		int bytes = 0;
+		while (references.hasNext() && chunk.size() < chunkSize) {
+			String reference = references.next();
+			chunk.add(reference);
+			bytes += reference.getBytes(UTF_8).length;
+			if (bytes >= MAX_CHUNK_BYTES) {
+				break;
+			}
+		}
+		return chunk;
+	}
+
+	/**
+	 * Aggregate result of a batch query.
+	 */
+	public static class QueryReport {
+
+		private final AtomicInteger chunks = new AtomicInteger();
+		private final AtomicInteger found = new AtomicInteger();
+		private final AtomicInteger missing = new AtomicInteger();
+		private final List<String> failed = Collections.synchronizedList(new ArrayList<>());
+		private long elapsedMillis;
+
+		/**
+		 * @return number of proposals sent
+		 */
+		public int getChunks() {
+			return chunks.get();
+		}
+
+		public int getFound() {
+			return found.get();
+		}
+
+		/**
+		 * @return number of references without a state on the ledger
+		 */
+		public int getMissing() {
+			return missing.get();
+		}
+
+		/**
+		 * @return references whose chunk could not be queried
+		 */
+		public List<String> getFailed() {
+			return failed;
+		}
+
+		public long getElapsedMillis() {
+			return elapsedMillis;
+		}
+
+		/**
+		 * @return references looked up per second
+		 */
+		public double getThroughput() {
+			return elapsedMillis == 0 ? 0 : (found.get() + missing.get()) * 1000.0 / elapsedMillis;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("found: %d, missing: %d, failed: %d, proposals: %d, elapsed: %d ms, "
+					+ "throughput: %.1f references/s", found.get(), missing.get(), failed.size(), chunks.get(),
+					elapsedMillis, getThroughput());
+		}
+	}
+
+}
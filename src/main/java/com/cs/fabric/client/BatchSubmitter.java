@@ -0,0 +1,188 @@
+package com.cs.fabric.client;
+
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.cs.fabric.client.utils.KeyedSequencer;
+
+/**
+ * Submits a stream of life cycle events through one {@link InvokeChainCode},
+ * and so one HFClient and Channel, keeping at most <i>window</i> events in
+ * flight. When the window is full the caller blocks until an event
+ * completes.
+ *
+ * Every transition reads and writes the state of its LC reference, so two
+ * concurrent events for the same reference would end in an MVCC conflict.
+ * Events for one reference are therefore submitted in order, each after the
+ * previous one has committed, while events for different references run in
+ * parallel. Queued events count against the window.
+ *
+ * With an {@link EventBatcher}, events are packed into batch transactions
+ * instead of being sent one transaction each. The window then still counts
+ * events, queued in the batcher or in flight, so it must hold at least one
+ * full batch.
+ */
+public class BatchSubmitter {
+
+	private static final Log logger = LogFactory.getLog(BatchSubmitter.class);
+
+	private final InvokeChainCode invokeChainCode;
+	private final Executor executor;
+	private final int window;
+	private final EventBatcher batcher;
+	private final KeyedSequencer sequencer = new KeyedSequencer();
+
+	/**
+	 * @param invokeChainCode
+	 *            invoker shared by all events
+	 * @param executor
+	 *            executor running the blocking endorsement and ordering calls
+	 * @param window
+	 *            maximum number of transactions in flight
+	 */
+	public BatchSubmitter(InvokeChainCode invokeChainCode, Executor executor, int window) {
+		this(invokeChainCode, executor, window, null);
+	}
+
+	/**
+	 * @param invokeChainCode
+	 *            invoker shared by all events
+	 * @param executor
+	 *            executor running the blocking endorsement and ordering calls
+	 * @param window
+	 *            maximum number of events in flight, at least the batcher's
+	 *            maximum number of events
+	 * @param batcher
+	 *            packs the events into batch transactions, null to send one
+	 *            transaction per event
+	 */
+	public BatchSubmitter(InvokeChainCode invokeChainCode, Executor executor, int window, EventBatcher batcher) {
+		if (window < 1) {
+			throw new IllegalArgumentException("Window must be at least 1 but was " + window);
+		}
+		if (batcher != null && batcher.getMaxEvents() > window) {
+			// A batch could never fill and would always wait for its delay
+			throw new IllegalArgumentException("Window " + window + " must hold a batch of "
+					+ batcher.getMaxEvents() + " events");
+		}
+		this.invokeChainCode = invokeChainCode;
+		this.executor = executor;
+		this.window = window;
+		this.batcher = batcher;
+	}
+
+	/**
+	 * Submit all events and wait until every one of them has completed.
+	 *
+	 * @param events
+	 * @param listener
+	 *            receives the outcome of every event, called from the
+	 *            completing thread
+	 * @return aggregate report of the run
+	 * @throws InterruptedException
+	 */
+	public BatchReport submit(Iterator<LifecycleEvent> events, Consumer<EventOutcome> listener)
+			throws InterruptedException {
+
+		final SubmissionMetrics metrics = new SubmissionMetrics();
+		final Semaphore inFlight = new Semaphore(window);
+		final long start = System.nanoTime();
+
+		while (events.hasNext()) {
+			LifecycleEvent event = events.next();
+			inFlight.acquire();
+			metrics.submitted();
+			submit(event, metrics).whenComplete((outcome, error) -> {
+				try {
+					metrics.completed(outcome);
+					listener.accept(outcome);
+				} catch (RuntimeException e) {
+					logger.error("Outcome listener failed for " + event, e);
+				} finally {
+					inFlight.release();
+				}
+			});
+		}
+
+		// Wait for the tail of the run to drain.
+		if (batcher != null) {
+			batcher.flush();
+		}
+		inFlight.acquire(window);
+		inFlight.release(window);
+
+		BatchReport report = new BatchReport(metrics,
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		logger.info("Batch finished. " + report);
+		return report;
+	}
+
+	/**
+	 * Submit a single event behind the pending events for its reference. The
+	 * returned future never completes exceptionally, failures are reported in
+	 * the outcome.
+	 *
+	 * @param event
+	 * @param metrics
+	 *            receives a count for every retry of the event
+	 * @return future completed with the outcome of the event
+	 */
+	CompletableFuture<EventOutcome> submit(LifecycleEvent event, SubmissionMetrics metrics) {
+		final long start = System.nanoTime();
+		return sequencer
+				.submit(event.getReference(),
+						() -> batcher != null ? batcher.submit(event, metrics)
+								: invokeChainCode.invokeAsync(event.getArgs(), executor, metrics))
+				.handle((transactionEvent, error) -> {
+					long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+					if (error instanceof CompletionException && error.getCause() != null) {
+						error = error.getCause();
+					}
+					return new EventOutcome(event, transactionEvent, error, latency);
+				});
+	}
+
+	/**
+	 * Aggregate result of a batch run.
+	 */
+	public static class BatchReport {
+
+		private final SubmissionMetrics metrics;
+		private final long elapsedMillis;
+
+		BatchReport(SubmissionMetrics metrics, long elapsedMillis) {
+			this.metrics = metrics;
+			this.elapsedMillis = elapsedMillis;
+		}
+
+		public SubmissionMetrics getMetrics() {
+			return metrics;
+		}
+
+		public long getElapsedMillis() {
+			return elapsedMillis;
+		}
+
+		/**
+		 * @return committed transactions per second
+		 */
+		public double getThroughput() {
+			return elapsedMillis == 0 ? 0 : metrics.getCommitted() * 1000.0 / elapsedMillis;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s, elapsed: %d ms, throughput: %.1f tx/s", metrics, elapsedMillis,
+					getThroughput());
+		}
+	}
+
+}
@@ -0,0 +1,323 @@
+package com.cs.fabric.client;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hyperledger.fabric.sdk.Enrollment;
+import org.hyperledger.fabric.sdk.User;
+import org.hyperledger.fabric.sdk.security.CryptoSuite;
+import org.hyperledger.fabric_ca.sdk.HFCAClient;
+
+import com.cs.fabric.client.utils.CertificateAuthority;
+import com.cs.fabric.client.utils.HFCACertificateAuthority;
+import com.cs.fabric.client.utils.RateLimiter;
+import com.cs.fabric.client.utils.StandInCertificateAuthority;
+import com.cs.fabric.sdk.utils.ClientConfig;
+import com.cs.fabric.sdkintegration.SampleOrg;
+import com.cs.fabric.sdkintegration.SampleStore;
+import com.cs.fabric.sdkintegration.SampleUser;
+
+/**
+ * Register and enroll a list of users of Org1 concurrently, one
+ * <i>name,affiliation</i> per line, e.g.
+ *
+ * <pre>
+ * exporter1,org1.department1
+ * bank1,org1.department1
+ * </pre>
+ *
+ * Users already enrolled in the store are skipped, so a run that failed part
+ * way can simply be repeated. Enrollment secrets are chosen and saved before
+ * registering, so a user registered by a failed run is enrolled with its
+ * saved secret instead of registered again. The enrollments are saved with a
+ * single write at the end.
+ *
+ * With --stand-in the users are onboarded against an in-process stand-in CA
+ * in a throwaway store, leaving the sample store alone. A first run loses some
+ * enrollments and a second run must resume it; the tool fails if the users
+ * do not all end up enrolled exactly once.
+ *
+ * Usage: BulkSetupUsers &lt;users file&gt; [parallelism] [calls per second]
+ * [--stand-in]
+ */
+public class BulkSetupUsers {
+
+	private static final ClientConfig clientConfig = ClientConfig.getConfig();
+	private static final String TEST_ADMIN_NAME = "admin";
+	private static final int DEFAULT_PARALLELISM = 8;
+	private static final double DEFAULT_RATE = 20;
+	private static final long STAND_IN_DELAY = 50;
+	private static final double STAND_IN_FAILURE_RATE = 0.2;
+
+	private static final Log logger = LogFactory.getLog(BulkSetupUsers.class);
+
+	private final SampleStore sampleStore;
+	private final CertificateAuthority ca;
+	private final User registrar;
+	private final SampleOrg sampleOrg;
+	private final int parallelism;
+	private final RateLimiter rateLimiter;
+	private final SecureRandom random = new SecureRandom();
+
+	/**
+	 * @param sampleStore
+	 * @param ca
+	 * @param registrar
+	 *            enrolled user allowed to register users
+	 * @param sampleOrg
+	 *            org the users belong to
+	 * @param parallelism
+	 *            number of users onboarded at the same time
+	 * @param permitsPerSecond
+	 *            maximum number of CA calls per second, 0 for no limit
+	 */
+	public BulkSetupUsers(SampleStore sampleStore, CertificateAuthority ca, User registrar, SampleOrg sampleOrg,
+			int parallelism, double permitsPerSecond) {
+		this.sampleStore = sampleStore;
+		this.ca = ca;
+		this.registrar = registrar;
+		this.sampleOrg = sampleOrg;
+		this.parallelism = parallelism;
+		this.rateLimiter = new RateLimiter(permitsPerSecond);
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		List<String> options = new ArrayList<>(Arrays.asList(args));
+		boolean standIn = options.remove("--stand-in");
+		if (options.isEmpty()) {
+			logger.error("Usage: BulkSetupUsers <users file> [parallelism] [calls per second] [--stand-in]");
+			return;
+		}
+		final int parallelism = options.size() > 1 ? Integer.parseInt(options.get(1)) : DEFAULT_PARALLELISM;
+		final double rate = options.size() > 2 ? Double.parseDouble(options.get(2)) : DEFAULT_RATE;
+
+		List<String[]> users = new ArrayList<>();
+		for (String line : Files.readAllLines(Paths.get(options.get(0)), UTF_8)) {
+			line = line.trim();
+			if (!line.isEmpty() && !line.startsWith("#")) {
+				users.add(line.split("[ \t]*,[ \t]*"));
+			}
+		}
+
+		SampleOrg sampleOrg = clientConfig.getIntegrationTestsSampleOrg("peerOrg1");
+		if (standIn) {
+			checkStandIn(users, sampleOrg, parallelism, rate);
+			return;
+		}
+
+		File sampleStoreFile = new File(System.getProperty("java.io.tmpdir") + "/HFCSampletest.properties");
+		SampleStore sampleStore = new SampleStore(sampleStoreFile);
+		SampleUser admin = sampleStore.getMember(TEST_ADMIN_NAME, sampleOrg.getName());
+
+		HFCAClient hfcaClient = HFCAClient.createNewInstance(sampleOrg.getCALocation(), sampleOrg.getCAProperties());
+		hfcaClient.setCryptoSuite(CryptoSuite.Factory.getCryptoSuite());
+		if (!admin.isEnrolled()) { // Preregistered admin only needs to be
+									// enrolled with Fabric caClient.
+			admin.setEnrollment(hfcaClient.enroll(admin.getName(), "adminpw"));
+			admin.setMspId(sampleOrg.getMSPID());
+		}
+		CertificateAuthority ca = new HFCACertificateAuthority(hfcaClient);
+
+		Report report = new BulkSetupUsers(sampleStore, ca, admin, sampleOrg, parallelism, rate).onboard(users);
+		logger.info(report);
+	}
+
+	/**
+	 * Onboard the users against a stand-in CA twice, in a throwaway store: a
+	 * run losing some enrollments, then a run resuming it from the store file
+	 * like a new process would.
+	 *
+	 * @throws IllegalStateException
+	 *             if the resumed run does not leave every user enrolled,
+	 *             registered once
+	 */
+	private static void checkStandIn(List<String[]> users, SampleOrg sampleOrg, int parallelism, double rate)
+			throws Exception {
+
+		Path storeFile = Files.createTempFile("HFCSampletest", ".properties");
+		storeFile.toFile().deleteOnExit();
+		StandInCertificateAuthority ca = new StandInCertificateAuthority(STAND_IN_DELAY, STAND_IN_FAILURE_RATE);
+
+		SampleStore store = new SampleStore(storeFile.toFile());
+		Report first = new BulkSetupUsers(store, ca, store.getMember(TEST_ADMIN_NAME, sampleOrg.getName()),
+				sampleOrg, parallelism, rate).onboard(users);
+		logger.info("Stand-in run: " + first);
+
+		ca.setEnrollFailureRate(0);
+		SampleStore resumed = new SampleStore(storeFile.toFile());
+		Report second = new BulkSetupUsers(resumed, ca, resumed.getMember(TEST_ADMIN_NAME, sampleOrg.getName()),
+				sampleOrg, parallelism, rate).onboard(users);
+		logger.info("Resumed stand-in run: " + second);
+
+		List<String> problems = new ArrayList<>();
+		if (!second.getFailed().isEmpty()) {
+			problems.add("failed after resuming: " + second.getFailed());
+		}
+		if (!new HashSet<>(second.getSkipped()).equals(new HashSet<>(first.getEnrolled()))) {
+			problems.add("resuming did not skip exactly the users enrolled before");
+		}
+		Set<String> names = new HashSet<>();
+		for (String[] user : users) {
+			names.add(user[0]);
+			if (!resumed.getMember(user[0], sampleOrg.getName()).isEnrolled()) {
+				problems.add(user[0] + " is not enrolled");
+			}
+		}
+		if (ca.getRegistrations() != names.size()) {
+			problems.add(ca.getRegistrations() + " registrations for " + names.size() + " users");
+		}
+		if (!problems.isEmpty()) {
+			throw new IllegalStateException("Stand-in onboarding check failed: " + problems);
+		}
+		logger.info("Stand-in onboarding check passed");
+	}
+
+	/**
+	 * @param users
+	 *            name and affiliation of each user
+	 * @return outcome per user
+	 */
+	public Report onboard(List<String[]> users) throws Exception {
+
+		final long start = System.nanoTime();
+		Report report = new Report();
+
+		// Choose the secrets of new users and save them before registering
+		List<SampleUser> pending = new ArrayList<>();
+		List<String> affiliations = new ArrayList<>();
+		Set<SampleUser> fresh = new HashSet<>();
+		sampleStore.beginBatch();
+		for (String[] user : users) {
+			SampleUser sampleUser = sampleStore.getMember(user[0], sampleOrg.getName());
+			if (sampleUser.isEnrolled()) {
+				report.skipped.add(sampleUser.getName());
+				continue;
+			}
+			if (!sampleUser.isRegistered()) {
+				sampleUser.setEnrollmentSecret(new BigInteger(130, random).toString(32));
+				fresh.add(sampleUser);
+			}
+			pending.add(sampleUser);
+			affiliations.add(user.length > 1 ? user[1] : "org1.department1");
+		}
+		sampleStore.commitBatch();
+		logger.info(String.format("Onboarding %d users, %d already enrolled", pending.size(), report.skipped.size()));
+
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+		sampleStore.beginBatch();
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < pending.size(); i++) {
+				final SampleUser sampleUser = pending.get(i);
+				final String affiliation = affiliations.get(i);
+				final boolean registered = !fresh.contains(sampleUser);
+				futures.add(executor.submit(() -> {
+					onboard(sampleUser, affiliation, registered);
+					return null;
+				}));
+			}
+			for (int i = 0; i < futures.size(); i++) {
+				String name = pending.get(i).getName();
+				try {
+					futures.get(i).get();
+					report.enrolled.add(name);
+				} catch (ExecutionException e) {
+					logger.error("Could not onboard user " + name + ": " + e.getCause().getMessage());
+					report.failed.add(name);
+				}
+			}
+		} finally {
+			executor.shutdown();
+			// Keep what succeeded, a later run picks up the failed users
+			sampleStore.commitBatch();
+		}
+
+		report.elapsedMillis = (System.nanoTime() - start) / 1000000;
+		return report;
+	}
+
+	private void onboard(SampleUser sampleUser, String affiliation, boolean registered) throws Exception {
+		String secret = sampleUser.getEnrollmentSecret();
+		Enrollment enrollment = null;
+		if (registered) {
+			// Registered by an earlier run, or only the secret was saved
+			// before it failed; enrolling tells which.
+			try {
+				rateLimiter.acquire();
+				enrollment = ca.enroll(sampleUser.getName(), secret);
+			} catch (InterruptedException e) {
+				throw e;
+			} catch (Exception e) {
+				logger.debug("Could not enroll " + sampleUser.getName() + ", registering: " + e.getMessage());
+			}
+		}
+		if (enrollment == null) {
+			rateLimiter.acquire();
+			String issued = ca.register(sampleUser.getName(), affiliation, secret, registrar);
+			if (issued != null && !issued.equals(secret)) {
+				secret = issued;
+				sampleUser.setEnrollmentSecret(secret);
+			}
+			rateLimiter.acquire();
+			enrollment = ca.enroll(sampleUser.getName(), secret);
+		}
+		sampleUser.setEnrollment(enrollment);
+		sampleUser.setMspId(sampleOrg.getMSPID());
+	}
+
+	/**
+	 * Outcome of a bulk onboarding run.
+	 */
+	public static class Report {
+
+		private final List<String> enrolled = Collections.synchronizedList(new ArrayList<>());
+		private final List<String> skipped = new ArrayList<>();
+		private final List<String> failed = Collections.synchronizedList(new ArrayList<>());
+		private long elapsedMillis;
+
+		public List<String> getEnrolled() {
+			return enrolled;
+		}
+
+		/**
+		 * @return users already enrolled before the run
+		 */
+		public List<String> getSkipped() {
+			return skipped;
+		}
+
+		public List<String> getFailed() {
+			return failed;
+		}
+
+		public long getElapsedMillis() {
+			return elapsedMillis;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("enrolled: %d, already enrolled: %d, failed: %d %s, elapsed: %d ms",
+					enrolled.size(), skipped.size(), failed.size(), failed, elapsedMillis);
+		}
+	}
+
+}
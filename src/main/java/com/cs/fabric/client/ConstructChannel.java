@@ -77,9 +77,7 @@ public class ConstructChannel {
 			if (peerProperties == null) {
 				peerProperties = new Properties();
 			}
-			// Example of setting specific options on grpc's
-			// ManagedChannelBuilder
-			peerProperties.put("grpc.ManagedChannelBuilderOption.maxInboundMessageSize", 9000000);
+			// gRPC options come from the peer's tuning profile, see GrpcProfile
 
 			Peer peer = client.newPeer(peerName, peerLocation, peerProperties);
 			newChannel.joinPeer(peer);
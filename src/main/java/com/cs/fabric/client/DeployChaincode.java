@@ -125,9 +125,7 @@ public class DeployChaincode {
 		 * someone in either Org1 or Org2 See README.md Chaincode endorsement
 		 * policies section for more details.
 		 */
-		ChaincodeEndorsementPolicy chaincodeEndorsementPolicy = new ChaincodeEndorsementPolicy();
-		chaincodeEndorsementPolicy
-				.fromYamlFile(new File(TEST_FIXTURES_PATH + "/sdkintegration/chaincodeendorsementpolicy.yaml"));
+		ChaincodeEndorsementPolicy chaincodeEndorsementPolicy = clientHelper.getChaincodeEndorsementPolicy();
 		instantiateProposalRequest.setChaincodeEndorsementPolicy(chaincodeEndorsementPolicy);
 
 		logger.info("Sending instantiateProposalRequest to all peers without arguments");
@@ -0,0 +1,264 @@
+package com.cs.fabric.client;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hyperledger.fabric.sdk.BlockEvent;
+import org.hyperledger.fabric.sdk.exception.ProposalException;
+
+import com.cs.fabric.client.utils.FutureHelper;
+
+/**
+ * Packs life cycle events into batch transactions of the trade_finance
+ * chaincode, so that many events share one endorsement, ordering slot and
+ * validation. A batch is sent once it holds <i>maxEvents</i> events or
+ * <i>maxDelay</i> milliseconds after its first event was queued, whichever
+ * comes first. Create one with {@link InvokeChainCode#newEventBatcher}.
+ *
+ * The chaincode applies a batch all or nothing. If a batch is not endorsed,
+ * for example because one of its transitions is rejected by the chaincode,
+ * its events are submitted one by one, so that only the events that fail on
+ * their own fail. A batch failing once it was handed to an orderer may still
+ * commit, so its events fail rather than being submitted twice. An event
+ * must not be submitted before the previous event of its reference has
+ * completed, see {@link BatchSubmitter}.
+ */
+public class EventBatcher implements AutoCloseable {
+
+	/** Maximum number of transitions per batch call of the chaincode */
+	public static final int MAX_BATCH_SIZE = 500;
+
+	private static final Log logger = LogFactory.getLog(EventBatcher.class);
+
+	private final InvokeChainCode invokeChainCode;
+	private final Executor executor;
+	private final int maxEvents;
+	private final long maxDelay;
+	private List<Pending> queue = new ArrayList<>();
+	private ScheduledFuture<?> timer;
+	private boolean closed;
+
+	private EventBatcher(Builder builder) {
+		this.invokeChainCode = builder.invokeChainCode;
+		this.executor = builder.executor;
+		this.maxEvents = builder.maxEvents;
+		this.maxDelay = builder.maxDelay;
+	}
+
+	/**
+	 * Queue an event for the next batch, recording retries in the metrics of
+	 * the invoker.
+	 *
+	 * @param event
+	 * @return future completed with the commit event of the transaction the
+	 *         event ended up in
+	 */
+	public CompletableFuture<BlockEvent.TransactionEvent> submit(LifecycleEvent event) {
+		return submit(event, invokeChainCode.getMetrics());
+	}
+
+	/**
+	 * Queue an event for the next batch. Events with different metrics end up
+	 * in different transactions.
+	 *
+	 * @param event
+	 * @param metrics
+	 *            receives a count for every retry of the event's transaction
+	 * @return future completed with the commit event of the transaction the
+	 *         event ended up in
+	 */
+	public CompletableFuture<BlockEvent.TransactionEvent> submit(LifecycleEvent event, SubmissionMetrics metrics) {
+		Pending pending = new Pending(event, metrics);
+		List<Pending> full = null;
+		synchronized (this) {
+			if (closed) {
+				throw new IllegalStateException("Event batcher is closed");
+			}
+			queue.add(pending);
+			if (queue.size() >= maxEvents) {
+				full = take();
+			} else if (queue.size() == 1) {
+				final List<Pending> batch = queue;
+				timer = FutureHelper.schedule(() -> executor.execute(() -> flush(batch)), maxDelay);
+			}
+		}
+		if (full != null) {
+			send(full);
+		}
+		return pending.future;
+	}
+
+	/**
+	 * Send the queued events now.
+	 */
+	public void flush() {
+		List<Pending> batch;
+		synchronized (this) {
+			batch = take();
+		}
+		send(batch);
+	}
+
+	/**
+	 * Send the queued events and accept no more.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			closed = true;
+		}
+		flush();
+	}
+
+	private void flush(List<Pending> batch) {
+		synchronized (this) {
+			if (queue != batch) {
+				return; // already sent
+			}
+			take();
+		}
+		send(batch);
+	}
+
+	private List<Pending> take() {
+		List<Pending> batch = queue;
+		queue = new ArrayList<>();
+		if (timer != null) {
+			timer.cancel(false);
+			timer = null;
+		}
+		return batch;
+	}
+
+	/**
+	 * @return number of events after which a batch is sent
+	 */
+	public int getMaxEvents() {
+		return maxEvents;
+	}
+
+	private void send(List<Pending> queued) {
+		Map<SubmissionMetrics, List<Pending>> byMetrics = new IdentityHashMap<>();
+		for (Pending pending : queued) {
+			byMetrics.computeIfAbsent(pending.metrics, m -> new ArrayList<>()).add(pending);
+		}
+		for (Map.Entry<SubmissionMetrics, List<Pending>> batch : byMetrics.entrySet()) {
+			send(batch.getValue(), batch.getKey());
+		}
+	}
+
+	private void send(List<Pending> batch, SubmissionMetrics metrics) {
+		if (batch.size() == 1) {
+			sendAlone(batch.get(0));
+			return;
+		}
+
+		List<String[]> transitions = new ArrayList<>(batch.size());
+		for (Pending pending : batch) {
+			transitions.add(pending.event.getArgs());
+		}
+		invokeChainCode.invokeBatchAsync(transitions, executor, metrics).whenComplete((transactionEvent, error) -> {
+			if (error == null) {
+				for (Pending pending : batch) {
+					pending.future.complete(transactionEvent);
+				}
+				return;
+			}
+			Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause()
+					: error;
+			if (!(cause instanceof ProposalException)) {
+				logger.error("Batch of " + batch.size() + " events failed after ordering, it may still commit: "
+						+ cause.getMessage());
+				for (Pending pending : batch) {
+					pending.future.completeExceptionally(cause);
+				}
+				return;
+			}
+			logger.warn("Batch of " + batch.size() + " events was not endorsed, submitting them one by one: "
+					+ cause.getMessage());
+			for (Pending pending : batch) {
+				sendAlone(pending);
+			}
+		});
+	}
+
+	private void sendAlone(Pending pending) {
+		invokeChainCode.invokeAsync(pending.event.getArgs(), executor, pending.metrics).whenComplete((transactionEvent, error) -> {
+			if (error != null) {
+				pending.future.completeExceptionally(error);
+			} else {
+				pending.future.complete(transactionEvent);
+			}
+		});
+	}
+
+	private static final class Pending {
+
+		private final LifecycleEvent event;
+		private final SubmissionMetrics metrics;
+		private final CompletableFuture<BlockEvent.TransactionEvent> future = new CompletableFuture<>();
+
+		Pending(LifecycleEvent event, SubmissionMetrics metrics) {
+			this.event = event;
+			this.metrics = metrics;
+		}
+	}
+
+	/**
+	 * Builder of an {@link EventBatcher}.
+	 */
+	public static class Builder {
+
+		private final InvokeChainCode invokeChainCode;
+		private final Executor executor;
+		private int maxEvents = 50;
+		private long maxDelay = 200;
+
+		Builder(InvokeChainCode invokeChainCode, Executor executor) {
+			this.invokeChainCode = invokeChainCode;
+			this.executor = executor;
+		}
+
+		/**
+		 * @param maxEvents
+		 *            number of events after which a batch is sent, at most
+		 *            {@link EventBatcher#MAX_BATCH_SIZE}, 50 by default
+		 * @return this builder
+		 */
+		public Builder maxEvents(int maxEvents) {
+			if (maxEvents < 1 || maxEvents > MAX_BATCH_SIZE) {
+				throw new IllegalArgumentException(
+						"Batch size must be between 1 and " + MAX_BATCH_SIZE + " but was " + maxEvents);
+			}
+			this.maxEvents = maxEvents;
+			return this;
+		}
+
+		/**
+		 * @param maxDelay
+		 *            milliseconds after its first event a batch is sent, 200 by
+		 *            default
+		 * @return this builder
+		 */
+		public Builder maxDelay(long maxDelay) {
+			if (maxDelay < 0) {
+				throw new IllegalArgumentException("Delay must not be negative but was " + maxDelay);
+			}
+			this.maxDelay = maxDelay;
+			return this;
+		}
+
+		public EventBatcher build() {
+			return new EventBatcher(this);
+		}
+	}
+
+}
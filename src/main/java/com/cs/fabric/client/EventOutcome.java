@@ -0,0 +1,63 @@
+package com.cs.fabric.client;
+
+import org.hyperledger.fabric.sdk.BlockEvent;
+
+/**
+ * Outcome of one submitted life cycle event.
+ */
+public class EventOutcome {
+
+	private final LifecycleEvent event;
+	private final BlockEvent.TransactionEvent transactionEvent;
+	private final Throwable error;
+	private final long latencyMillis;
+
+	EventOutcome(LifecycleEvent event, BlockEvent.TransactionEvent transactionEvent, Throwable error,
+			long latencyMillis) {
+		this.event = event;
+		this.transactionEvent = transactionEvent;
+		this.error = error;
+		this.latencyMillis = latencyMillis;
+	}
+
+	public LifecycleEvent getEvent() {
+		return event;
+	}
+
+	/**
+	 * @return commit event, null if the transaction failed before commit
+	 */
+	public BlockEvent.TransactionEvent getTransactionEvent() {
+		return transactionEvent;
+	}
+
+	/**
+	 * @return cause of the failure before commit, null otherwise
+	 */
+	public Throwable getError() {
+		return error;
+	}
+
+	public long getLatencyMillis() {
+		return latencyMillis;
+	}
+
+	/**
+	 * @return true if the transaction was committed as valid
+	 */
+	public boolean isCommitted() {
+		return transactionEvent != null && transactionEvent.isValid();
+	}
+
+	@Override
+	public String toString() {
+		if (isCommitted()) {
+			return event + " committed as " + transactionEvent.getTransactionID() + " in " + latencyMillis + " ms";
+		} else if (transactionEvent != null) {
+			return event + " invalidated as " + transactionEvent.getTransactionID() + " with code "
+					+ transactionEvent.getValidationCode();
+		}
+		return event + " failed: " + error;
+	}
+
+}
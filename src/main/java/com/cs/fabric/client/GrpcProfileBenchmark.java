@@ -0,0 +1,205 @@
+package com.cs.fabric.client;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hyperledger.fabric.protos.peer.EndorserGrpc;
+import org.hyperledger.fabric.protos.peer.FabricProposalResponse.ProposalResponse;
+import org.hyperledger.fabric.protos.peer.FabricProposalResponse.Response;
+import org.hyperledger.fabric.protos.peer.ProposalPackage.SignedProposal;
+
+import com.cs.fabric.sdk.utils.GrpcProfile;
+import com.google.protobuf.ByteString;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.netty.NegotiationType;
+import io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.NettyServerBuilder;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * Compare the {@link GrpcProfile}s on loopback: for each profile, a stub
+ * endorser answers every proposal with a payload of the given size after an
+ * optional delay imitating the network, and the client keeps a number of
+ * proposals in flight. Reports throughput and latency percentiles per
+ * profile.
+ *
+ * Small payloads show the endorsement path, payloads of a few MB the block
+ * delivery path, and a delay of tens of milliseconds a WAN link.
+ *
+ * Usage: GrpcProfileBenchmark [requests] [concurrency] [payload bytes]
+ * [delay ms]
+ */
+public class GrpcProfileBenchmark {
+
+	private static final int DEFAULT_REQUESTS = 2000;
+	private static final int DEFAULT_CONCURRENCY = 16;
+	private static final int DEFAULT_PAYLOAD = 2048;
+	private static final int PROPOSAL_SIZE = 3072;
+	private static final String SAMPLE_STATE = "{\"reference\":\"IMLC-000001\",\"exporter\":\"exporter1\","
+			+ "\"shippingCorporation\":\"shipping1\",\"negotiationBank\":\"bank1\",\"importBank\":\"bank2\","
+			+ "\"status\":\"SHIPPED\"}";
+
+	private static final Log logger = LogFactory.getLog(GrpcProfileBenchmark.class);
+
+	public static void main(String[] args) throws Exception {
+
+		final int requests = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_REQUESTS;
+		final int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_CONCURRENCY;
+		final int payload = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_PAYLOAD;
+		final long delay = args.length > 3 ? Long.parseLong(args[3]) : 0;
+
+		byte[] proposal = new byte[PROPOSAL_SIZE];
+		new Random(1).nextBytes(proposal);
+		SignedProposal request = SignedProposal.newBuilder().setProposalBytes(ByteString.copyFrom(proposal))
+				.setSignature(ByteString.copyFrom(Arrays.copyOf(proposal, 72))).build();
+		ProposalResponse response = ProposalResponse.newBuilder()
+				.setResponse(Response.newBuilder().setStatus(200).setPayload(statePayload(payload)).build())
+				.build();
+
+		logger.info(String.format("%d proposals, %d in flight, %d byte responses, %d ms delay", requests,
+				concurrency, payload, delay));
+		ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+		try {
+			for (GrpcProfile profile : GrpcProfile.values()) {
+				logger.info(run(profile, request, response, delay, timer, requests, concurrency));
+			}
+		} finally {
+			timer.shutdownNow();
+		}
+	}
+
+	private static String run(GrpcProfile profile, SignedProposal request, ProposalResponse response, long delay,
+			ScheduledExecutorService timer, int requests, int concurrency) throws Exception {
+
+		Server server = NettyServerBuilder.forPort(0)
+				.addService(new StubEndorser(response, delay, timer))
+				.flowControlWindow(profile.getFlowControlWindow()).maxMessageSize(profile.getMaxInboundMessageSize())
+				.build().start();
+		ManagedChannel channel = profile
+				.configure(NettyChannelBuilder.forAddress("localhost", server.getPort())
+						.negotiationType(NegotiationType.PLAINTEXT))
+				.build();
+		try {
+			EndorserGrpc.EndorserStub stub = EndorserGrpc.newStub(channel);
+
+			send(stub, request, Math.min(requests, 200), concurrency, new long[requests]); // warm up
+			long[] latencies = new long[requests];
+			long start = System.nanoTime();
+			int failed = send(stub, request, requests, concurrency, latencies);
+			long elapsed = System.nanoTime() - start;
+
+			Arrays.sort(latencies);
+			return String.format("%-15s %9.0f proposals/s  p50 %7.2f ms  p99 %7.2f ms  max %7.2f ms  failed %d",
+					profile, requests * 1e9 / elapsed, percentile(latencies, 50), percentile(latencies, 99),
+					latencies[latencies.length - 1] / 1e6, failed);
+		} finally {
+			channel.shutdownNow();
+			server.shutdownNow();
+			channel.awaitTermination(5, TimeUnit.SECONDS);
+			server.awaitTermination(5, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Send proposals keeping at most the given number in flight.
+	 *
+	 * @return number of failed proposals
+	 */
+	private static int send(EndorserGrpc.EndorserStub stub, SignedProposal request, int requests,
+			int concurrency, long[] latencies) throws InterruptedException {
+
+		final Semaphore inFlight = new Semaphore(concurrency);
+		final CountDownLatch done = new CountDownLatch(requests);
+		final AtomicInteger failed = new AtomicInteger();
+		for (int i = 0; i < requests; i++) {
+			inFlight.acquire();
+			final int index = i;
+			final long start = System.nanoTime();
+			stub.processProposal(request, new StreamObserver<ProposalResponse>() {
+
+				@Override
+				public void onNext(ProposalResponse value) {
+					latencies[index] = System.nanoTime() - start;
+				}
+
+				@Override
+				public void onError(Throwable t) {
+					latencies[index] = System.nanoTime() - start;
+					failed.incrementAndGet();
+					inFlight.release();
+					done.countDown();
+				}
+
+				@Override
+				public void onCompleted() {
+					inFlight.release();
+					done.countDown();
+				}
+			});
+		}
+		done.await();
+		return failed.get();
+	}
+
+	private static double percentile(long[] sorted, int percentile) {
+		int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+		return sorted[Math.max(0, index)] / 1e6;
+	}
+
+	/**
+	 * @return ledger state like data of about the given size
+	 */
+	private static ByteString statePayload(int size) {
+		StringBuilder payload = new StringBuilder(size + SAMPLE_STATE.length());
+		payload.append('[');
+		while (payload.length() < size - 1) {
+			payload.append(SAMPLE_STATE).append(',');
+		}
+		payload.setLength(Math.max(1, size - 1));
+		payload.append(']');
+		return ByteString.copyFrom(payload.toString().getBytes(UTF_8));
+	}
+
+	/**
+	 * Endorser answering every proposal with the same response.
+	 */
+	private static class StubEndorser extends EndorserGrpc.EndorserImplBase {
+
+		private final ProposalResponse response;
+		private final long delay;
+		private final ScheduledExecutorService timer;
+
+		StubEndorser(ProposalResponse response, long delay, ScheduledExecutorService timer) {
+			this.response = response;
+			this.delay = delay;
+			this.timer = timer;
+		}
+
+		@Override
+		public void processProposal(SignedProposal request, StreamObserver<ProposalResponse> responseObserver) {
+			if (delay > 0) {
+				timer.schedule(() -> respond(responseObserver), delay, TimeUnit.MILLISECONDS);
+			} else {
+				respond(responseObserver);
+			}
+		}
+
+		private void respond(StreamObserver<ProposalResponse> responseObserver) {
+			responseObserver.onNext(response);
+			responseObserver.onCompleted();
+		}
+	}
+
+}
@@ -2,26 +2,46 @@ package com.cs.fabric.client;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.InvocationTargetException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonWriter;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.hyperledger.fabric.protos.peer.TransactionPackage.TxValidationCode;
+import org.hyperledger.fabric.sdk.BlockEvent;
 import org.hyperledger.fabric.sdk.ChaincodeID;
 import org.hyperledger.fabric.sdk.Channel;
 import org.hyperledger.fabric.sdk.HFClient;
+import org.hyperledger.fabric.sdk.Orderer;
 import org.hyperledger.fabric.sdk.ProposalResponse;
 import org.hyperledger.fabric.sdk.QueryByChaincodeRequest;
 import org.hyperledger.fabric.sdk.SDKUtils;
@@ -31,72 +51,349 @@ import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
 import org.hyperledger.fabric.sdk.exception.ProposalException;
 import org.hyperledger.fabric.sdk.exception.TransactionException;
 
-import com.cs.fabric.client.utils.ClientHelper;
+import com.cs.fabric.client.utils.CommitTracker;
+import com.cs.fabric.client.utils.EndorsementCollector;
+import com.cs.fabric.client.utils.EndorsementPeerSelector;
+import com.cs.fabric.client.utils.FabricSession;
+import com.cs.fabric.client.utils.FutureHelper;
+import com.cs.fabric.client.utils.LedgerStateCache;
+import com.cs.fabric.client.utils.OrdererBalancer;
+import com.cs.fabric.client.utils.QueryRouter;
+import com.cs.fabric.client.utils.RetryPolicy;
+import com.cs.fabric.client.utils.SessionRegistry;
 import com.cs.fabric.sdk.utils.ClientConfig;
-import com.cs.fabric.sdkintegration.SampleOrg;
+import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 
-public class InvokeChainCode {
+public class InvokeChainCode implements AutoCloseable {
 
 	//private static final String TESTUSER_1_NAME = "user1";
-	private static final ClientHelper clientHelper = new ClientHelper();
-	private static final ClientConfig clientConfig = ClientConfig.getConfig();
 	private static final Log logger = LogFactory.getLog(InvokeChainCode.class);
+	private static final String STATE_CACHE = "tradeFinanceStateCache";
+	private static final ExecutorService blockingExecutor = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "invoke-chaincode");
+		thread.setDaemon(true);
+		return thread;
+	});
 	private String[] args;
 	private HFClient client;
 	private Channel channel;
 	private ChaincodeID chaincodeID;
+	private final RetryPolicy retryPolicy;
+	private final SubmissionMetrics metrics = new SubmissionMetrics();
+	private final EndorsementCollector endorsementCollector;
+	private final QueryRouter queryRouter;
+	private final LedgerStateCache<TradeFinance> stateCache;
+	private final CommitTracker commitTracker;
+	private final OrdererBalancer ordererBalancer;
+	private final FabricSession session;
+	private final boolean ownsSession;
+	private final AtomicBoolean closed = new AtomicBoolean();
+
+	/**
+	 * Create an invoker without default arguments, for use with
+	 * {@link #invokeAsync(String[], Executor)}.
+	 */
+	public InvokeChainCode() throws CryptoException, InvalidArgumentException, NoSuchAlgorithmException,
+			NoSuchProviderException, InvalidKeySpecException, TransactionException, IOException, IllegalAccessException, InstantiationException, ClassNotFoundException, NoSuchMethodException, InvocationTargetException {
+		this(new String[0]);
+	}
 
+	/**
+	 * Create an invoker holding a reference to the shared session until
+	 * {@link #close()}.
+	 *
+	 * @param args
+	 *            default chaincode arguments, action first
+	 */
 	public InvokeChainCode(String[] args) throws CryptoException, InvalidArgumentException, NoSuchAlgorithmException,
 			NoSuchProviderException, InvalidKeySpecException, TransactionException, IOException, IllegalAccessException, InstantiationException, ClassNotFoundException, NoSuchMethodException, InvocationTargetException {
+		this(SessionRegistry.acquire(), args, true);
+	}
+
+	/**
+	 * Create an invoker on an existing session. This is cheap, the client and
+	 * channel of the session are reused.
+	 *
+	 * @param session
+	 * @param args
+	 *            default chaincode arguments, action first
+	 */
+	public InvokeChainCode(FabricSession session, String[] args) {
+		this(session, args, false);
+	}
+
+	private InvokeChainCode(FabricSession session, String[] args, boolean ownsSession) {
+		this.session = session;
+		this.ownsSession = ownsSession;
 		this.args = args;
-		this.client = clientHelper.getHFClient();
-		this.channel = clientHelper.getChannel();
-		this.chaincodeID = clientHelper.getChaincodeID();
-		SampleOrg sampleOrg = clientHelper.getSamleOrg();
+		this.client = session.getClient();
+		this.channel = session.getChannel();
+		this.chaincodeID = session.getChaincodeID();
 		//this.client.setUserContext(sampleOrg.getUser(TESTUSER_1_NAME));
-		this.client.setUserContext(sampleOrg.getPeerAdmin()); // Maybe a bug of 1.0.0beta, only peer admin can call chaincode?
+
+		final ClientConfig clientConfig = ClientConfig.getConfig();
+		this.retryPolicy = new RetryPolicy(clientConfig.getInvokeRetryAttempts(),
+				clientConfig.getInvokeRetryBaseDelay(), clientConfig.getInvokeRetryMaxDelay());
+		EndorsementPeerSelector peerSelector = new EndorsementPeerSelector(channel, session.getEndorsementPolicy(),
+				session.getPeerMspIds(), session.getPeerLatencies());
+		this.endorsementCollector = new EndorsementCollector(channel, peerSelector,
+				clientConfig.getEndorsementHedgeDelay());
+		this.queryRouter = new QueryRouter(channel, session.getPeerLatencies(), clientConfig.getQueryHedgePercentile(),
+				clientConfig.getQueryHedgeDelay());
+		this.commitTracker = session.getCommitTracker();
+		this.ordererBalancer = session.getOrdererBalancer();
+		this.stateCache = session.getShared(STATE_CACHE, () -> {
+			LedgerStateCache<TradeFinance> cache = new LedgerStateCache<>(chaincodeID.getName(),
+					clientConfig.getStateCacheSize());
+			commitTracker.addBlockListener(cache);
+			return cache;
+		});
 	}
 
 	public void invoke() throws InvalidArgumentException, ProposalException, InvalidProtocolBufferException,
 			UnsupportedEncodingException, InterruptedException, ExecutionException, TimeoutException {
 
-		Collection<ProposalResponse> successful = new LinkedList<>();
-		Collection<ProposalResponse> failed = new LinkedList<>();
+		// Every phase of the asynchronous invocation is bounded by its own
+		// timeout, so waiting without a timeout here cannot hang.
+		invokeAsync(blockingExecutor).get();
+
+	}
+
+	/**
+	 * Invoke the chaincode without blocking the caller.
+	 *
+	 * @param executor
+	 *            executor running the blocking endorsement and ordering calls
+	 * @return future completed with the commit event of the transaction
+	 */
+	public CompletableFuture<BlockEvent.TransactionEvent> invokeAsync(Executor executor) {
+		return invokeAsync(args, executor);
+	}
+
+	/**
+	 * Invoke the chaincode with the given arguments without blocking the
+	 * caller, recording retries in the metrics of this invoker.
+	 *
+	 * @param args
+	 *            chaincode arguments, action first
+	 * @param executor
+	 *            executor running the blocking endorsement and ordering calls
+	 * @return future completed with the commit event of the transaction
+	 */
+	public CompletableFuture<BlockEvent.TransactionEvent> invokeAsync(String[] args, Executor executor) {
+		return invokeAsync(args, executor, metrics);
+	}
+
+	/**
+	 * Invoke the chaincode with the given arguments without blocking the
+	 * caller. The endorsement, consistency check, ordering and commit phases
+	 * are separate stages, each with its own timeout. The commit is tracked by
+	 * the block listener shared by all transactions of the channel.
+	 *
+	 * A transaction invalidated by a read conflict is endorsed again against
+	 * the new state and resubmitted after a jittered backoff, up to the
+	 * configured number of attempts. The future then completes with the event
+	 * of the last attempt.
+	 *
+	 * The future fails with a {@link ProposalException} if a transaction was
+	 * not endorsed, so that nothing was handed to an orderer. Any other
+	 * failure leaves the outcome unknown, the transaction may still commit.
+	 *
+	 * @param args
+	 *            chaincode arguments, action first
+	 * @param executor
+	 *            executor running the blocking endorsement and ordering calls
+	 * @param metrics
+	 *            receives a count for every retry
+	 * @return future completed with the commit event of the transaction
+	 */
+	public CompletableFuture<BlockEvent.TransactionEvent> invokeAsync(String[] args, Executor executor,
+			SubmissionMetrics metrics) {
+		return attempt(args, executor, metrics, 1);
+	}
+
+	/**
+	 * Apply several life cycle transitions in one transaction with the
+	 * chaincode batch action. Later transitions see the states written by
+	 * earlier ones. See {@link EventBatcher} to batch a stream of events.
+	 *
+	 * @param transitions
+	 *            chaincode arguments of each transition, action first, at most
+	 *            {@link EventBatcher#MAX_BATCH_SIZE}
+	 * @param executor
+	 *            executor running the blocking endorsement and ordering calls
+	 * @return future completed with the commit event of the transaction
+	 */
+	public CompletableFuture<BlockEvent.TransactionEvent> invokeBatchAsync(List<String[]> transitions,
+			Executor executor) {
+		return invokeBatchAsync(transitions, executor, metrics);
+	}
+
+	/**
+	 * Apply several life cycle transitions in one transaction, recording
+	 * retries of the transaction in the given metrics.
+	 *
+	 * @param transitions
+	 *            chaincode arguments of each transition, action first, at most
+	 *            {@link EventBatcher#MAX_BATCH_SIZE}
+	 * @param executor
+	 *            executor running the blocking endorsement and ordering calls
+	 * @param metrics
+	 *            receives a count for every retry
+	 * @return future completed with the commit event of the transaction
+	 */
+	public CompletableFuture<BlockEvent.TransactionEvent> invokeBatchAsync(List<String[]> transitions,
+			Executor executor, SubmissionMetrics metrics) {
 
-		// Create instance of client.
-		// HFClient client = clientHelper.getHFClient();
+		JsonArrayBuilder array = Json.createArrayBuilder();
+		for (String[] transition : transitions) {
+			JsonArrayBuilder transitionArgs = Json.createArrayBuilder();
+			for (String arg : transition) {
+				transitionArgs.add(arg);
+			}
+			array.add(transitionArgs);
+		}
+		ByteArrayOutputStream json = new ByteArrayOutputStream();
+		try (JsonWriter writer = Json.createWriter(json)) {
+			writer.writeArray(array.build());
+		}
+
+		return invokeAsync(new String[] { "batch", new String(json.toByteArray(), UTF_8) }, executor, metrics)
+				.thenApply(transactionEvent -> {
+					for (String[] transition : transitions) {
+						stateCache.invalidate(transition[1]);
+					}
+					return transactionEvent;
+				});
+	}
+
+	/**
+	 * Start packing life cycle events into batch transactions.
+	 *
+	 * @param executor
+	 *            executor running the blocking endorsement and ordering calls
+	 * @return builder of the batcher
+	 */
+	public EventBatcher.Builder newEventBatcher(Executor executor) {
+		return new EventBatcher.Builder(this, executor);
+	}
+
+	private CompletableFuture<BlockEvent.TransactionEvent> attempt(String[] args, Executor executor,
+			SubmissionMetrics metrics, int attempt) {
+
+		// One snapshot for all timeouts of the attempt
+		final ClientConfig clientConfig = ClientConfig.getConfig();
+		CompletableFuture<Collection<ProposalResponse>> endorsement = FutureHelper
+				.within(endorse(args, executor), clientConfig.getProposalWaitTime(), "endorsement")
+				.thenApply(responses -> checkConsistency(args, responses))
+				.handle((successful, error) -> {
+					if (error == null) {
+						return successful;
+					}
+					// Nothing was sent to an orderer yet, tell callers so
+					Throwable cause = error instanceof CompletionException && error.getCause() != null
+							? error.getCause() : error;
+					throw new CompletionException(cause instanceof ProposalException ? cause
+							: new ProposalException(cause.getMessage(), cause));
+				});
+
+		return endorsement
+				.thenCompose(successful -> {
+					String transactionID = successful.iterator().next().getTransactionID();
+					CompletableFuture<BlockEvent.TransactionEvent> commit = commitTracker.await(transactionID,
+							clientConfig.getOrdererWaitTime() + clientConfig.getTransactionWaitTime());
+					long deadline = System.nanoTime()
+							+ TimeUnit.MILLISECONDS.toNanos(clientConfig.getOrdererWaitTime());
+					return broadcast(args, successful, executor, clientConfig, deadline, new HashSet<>())
+							.whenComplete((broadcast, error) -> {
+								if (error != null) {
+									commitTracker.fail(transactionID, error);
+								} else {
+									// Only a failed broadcast is of interest, the
+									// commit is reported by the tracker.
+									broadcast.whenComplete((ignored, broadcastError) -> {
+										if (broadcastError != null) {
+											commitTracker.fail(transactionID, broadcastError);
+										}
+									});
+								}
+							}).thenCompose(broadcast -> commit);
+				})
+				.thenCompose(transactionEvent -> {
+					// The commit may be reported before the block listener of
+					// the cache has seen the block. A batch invalidates the
+					// references of its transitions itself.
+					if (args.length > 1 && !"batch".equals(args[0])) {
+						stateCache.invalidate(args[1]);
+					}
+					if (transactionEvent.isValid()) {
+						logger.info("Successfully send transaction proposal to orderer. Transaction ID: "
+								+ transactionEvent.getTransactionID());
+						return CompletableFuture.completedFuture(transactionEvent);
+					}
+
+					TxValidationCode code = ValidationCode.forCode(transactionEvent.getValidationCode());
+					if (!ValidationCode.isRetryable(code) || !retryPolicy.canRetry(attempt)) {
+						logger.error("Transaction " + transactionEvent.getTransactionID() + " for "
+								+ Arrays.toString(args) + " was invalidated with " + code + " after " + attempt
+								+ " attempt(s)");
+						return CompletableFuture.completedFuture(transactionEvent);
+					}
 
-		// Create instance of channel.
-		// Channel channel = clientHelper.getChannelWithPeerAdmin();
+					long delay = retryPolicy.delay(attempt);
+					logger.info("Transaction " + transactionEvent.getTransactionID() + " for " + Arrays.toString(args)
+							+ " was invalidated with " + code + ", retrying in " + delay + " ms");
+					metrics.retried(code);
+					return FutureHelper.delay(delay)
+							.thenCompose(ignored -> attempt(args, executor, metrics, attempt + 1));
+				});
+	}
 
-		// Create instance of ChaincodeID
-		// ChaincodeID chaincodeID = clientHelper.getChaincodeID();
+	/**
+	 * Endorsement phase: collect endorsements from the cheapest peers
+	 * satisfying the endorsement policy, hedging with other peers if they are
+	 * slow.
+	 */
+	private CompletableFuture<Collection<ProposalResponse>> endorse(String[] args, Executor executor) {
 
 		///////////////
-		/// Send transaction proposal to all peers
+		/// Send transaction proposal to the selected peers
 		TransactionProposalRequest transactionProposalRequest = client.newTransactionProposalRequest();
 		transactionProposalRequest.setChaincodeID(chaincodeID);
 		transactionProposalRequest.setFcn("invoke");
 		transactionProposalRequest.setArgs(args);
+		transactionProposalRequest.setProposalWaitTime(ClientConfig.getConfig().getProposalWaitTime());
 
 		Map<String, byte[]> tm2 = new HashMap<>();
 		tm2.put("HyperLedgerFabric", "TransactionProposalRequest:JavaSDK".getBytes(UTF_8));
 		tm2.put("method", "TransactionProposalRequest".getBytes(UTF_8));
 		tm2.put("result", ":)".getBytes(UTF_8)); /// This should be returned see
 													/// chaincode.
-		transactionProposalRequest.setTransientMap(tm2);
+		try {
+			transactionProposalRequest.setTransientMap(tm2);
+		} catch (InvalidArgumentException e) {
+			CompletableFuture<Collection<ProposalResponse>> failed = new CompletableFuture<>();
+			failed.completeExceptionally(e);
+			return failed;
+		}
+
+		logger.info("sending transactionProposal with arguments " + Arrays.toString(args));
+		return endorsementCollector.collect(transactionProposalRequest, executor);
+	}
 
-		logger.info(
-				"sending transactionProposal to all peers with arguments inspect(IMLC-000001,Chinasystem,China Ocean Shipping Company)");
+	/**
+	 * Consistency phase: keep the successful endorsements and check that they
+	 * all agree with each other.
+	 */
+	private Collection<ProposalResponse> checkConsistency(String[] args,
+			Collection<ProposalResponse> transactionPropResp) {
+
+		Collection<ProposalResponse> successful = new LinkedList<>();
+		Collection<ProposalResponse> failed = new LinkedList<>();
 
-		Collection<ProposalResponse> transactionPropResp = channel.sendTransactionProposal(transactionProposalRequest,
-				channel.getPeers());
 		for (ProposalResponse response : transactionPropResp) {
 			if (response.getStatus() == ProposalResponse.Status.SUCCESS) {
-				// out("Successful transaction proposal response Txid: %s from
-				// peer %s", response.getTransactionID(),
-				// response.getPeer().getName());
 				successful.add(response);
 			} else {
 				failed.add(response);
@@ -106,85 +403,322 @@ public class InvokeChainCode {
 		// Check that all the proposals are consistent with each other. We
 		// should have only one set
 		// where all the proposals above are consistent.
-		Collection<Set<ProposalResponse>> proposalConsistencySets = SDKUtils
-				.getProposalConsistencySets(transactionPropResp);
+		Collection<Set<ProposalResponse>> proposalConsistencySets;
+		try {
+			proposalConsistencySets = SDKUtils.getProposalConsistencySets(transactionPropResp);
+		} catch (InvalidArgumentException e) {
+			throw new CompletionException(e);
+		}
 		if (proposalConsistencySets.size() != 1) {
 			logger.error(
 					"Expected only one set of consistent proposal responses but got " + proposalConsistencySets.size());
 		}
 
-		// out("Received %d transaction proposal responses. Successful+verified:
-		// %d . Failed: %d",
-		// transactionPropResp.size(), successful.size(), failed.size());
 		if (failed.size() > 0) {
 			ProposalResponse firstTransactionProposalResponse = failed.iterator().next();
-			logger.error("Not enough endorsers for inspect(IMLC-000001,Chinasystem,China Ocean Shipping Company):"
-					+ failed.size() + " endorser error: " + firstTransactionProposalResponse.getMessage()
-					+ ". Was verified: " + firstTransactionProposalResponse.isVerified());
+			logger.error("Not enough endorsers for " + Arrays.toString(args) + ":" + failed.size()
+					+ " endorser error: " + firstTransactionProposalResponse.getMessage() + ". Was verified: "
+					+ firstTransactionProposalResponse.isVerified());
 		} else {
 			logger.info("Successfully received transaction proposal responses.");
 		}
-		ProposalResponse resp = transactionPropResp.iterator().next();
-		byte[] x = resp.getChaincodeActionResponsePayload();
-		String resultAsString = null;
-		if (x != null) {
-			resultAsString = new String(x, "UTF-8");
+		if (successful.isEmpty()) {
+			throw new CompletionException(
+					new ProposalException("No successful endorsement for " + Arrays.toString(args)));
 		}
-		logger.info(resultAsString);
+
+		// The chaincode response is also in the proposal response, read it
+		// from there instead of copying it out of the chaincode action.
+		ByteString x = successful.iterator().next().getProposalResponse().getResponse().getPayload();
+		if (!x.isEmpty() && logger.isInfoEnabled()) {
+			// Transitions return the new state
+			logger.info(x.byteAt(0) == TradeFinanceReader.VERSION ? TradeFinance.fromByteString(x)
+					: x.toStringUtf8());
+		}
+
+		return successful;
+	}
+
+	/**
+	 * Hand the endorsed transaction to the orderer chosen by the session's
+	 * {@link OrdererBalancer}. An orderer that fails or does not accept it
+	 * within the attempt wait time is reported to the balancer and the next
+	 * one is tried, until all were tried or the orderer wait time is over.
+	 *
+	 * An orderer that timed out may still accept the transaction later; the
+	 * second copy is then invalidated as a duplicate and the commit tracker
+	 * keeps the first commit event.
+	 *
+	 * @param tried
+	 *            names of the orderers tried so far
+	 * @return future completed with the outcome of {@link #order}
+	 */
+	private CompletableFuture<CompletableFuture<BlockEvent.TransactionEvent>> broadcast(String[] args,
+			Collection<ProposalResponse> successful, Executor executor, ClientConfig clientConfig, long deadline,
+			Set<String> tried) {
+
+		Orderer orderer = ordererBalancer.acquire(tried);
+		long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+		// The last orderer gets all the time left
+		long wait = tried.size() < ordererBalancer.size()
+				? Math.min(remaining, clientConfig.getOrdererAttemptWaitTime()) : remaining;
+
+		return FutureHelper
+				.within(FutureHelper.supplyAsync(() -> order(args, successful, orderer), executor),
+						Math.max(1, wait), "ordering")
+				.handle((sent, error) -> {
+					boolean accepted = error == null && !sent.isCompletedExceptionally();
+					ordererBalancer.release(orderer, accepted);
+					if (!accepted && tried.size() < ordererBalancer.size() && deadline - System.nanoTime() > 0) {
+						logger.warn("Orderer " + orderer.getName() + " did not accept transaction("
+								+ Arrays.toString(args) + "), trying the next one");
+						return broadcast(args, successful, executor, clientConfig, deadline, tried);
+					}
+					if (error != null) {
+						CompletableFuture<CompletableFuture<BlockEvent.TransactionEvent>> failed = new CompletableFuture<>();
+						failed.completeExceptionally(error);
+						return failed;
+					}
+					return CompletableFuture.completedFuture(sent);
+				}).thenCompose(outcome -> outcome);
+	}
+
+	/**
+	 * Ordering phase: hand the endorsed transaction to the orderer. The
+	 * returned future completes when the transaction is committed, or fails
+	 * if the orderer does not accept it.
+	 */
+	private CompletableFuture<BlockEvent.TransactionEvent> order(String[] args,
+			Collection<ProposalResponse> successful, Orderer orderer) {
 
 		////////////////////////////
 		// Send Transaction Transaction to orderer
-		logger.info(
-				"Sending chain code transaction(inspect(IMLC-000001,Chinasystem,China Ocean Shipping Company)) to orderer.");
-		logger.info("sending transaction proposal to orderer");
-		channel.sendTransaction(successful).thenApply(transactionEvent -> {
-			if (transactionEvent.isValid()) {
-				logger.info("Successfully send transaction proposal to orderer. Transaction ID: "
-						+ transactionEvent.getTransactionID());
-			} else {
-				logger.info("Failed to send transaction proposal to orderer");
-			}
-			// chain.shutdown(true);
-			return transactionEvent.getTransactionID();
-		}).get(clientConfig.getTransactionWaitTime(), TimeUnit.SECONDS);
+		logger.info("Sending chain code transaction(" + Arrays.toString(args) + ") to orderer " + orderer.getName()
+				+ ".");
+		return channel.sendTransaction(successful, Collections.singleton(orderer));
+	}
+
+	/**
+	 * Release the session if this invoker acquired it. Transactions already
+	 * submitted still complete.
+	 */
+	@Override
+	public void close() {
+		if (ownsSession && closed.compareAndSet(false, true)) {
+			SessionRegistry.release(session);
+		}
+	}
+
+	/**
+	 * @return tracker of the commits of this invoker's transactions
+	 */
+	public CommitTracker getCommitTracker() {
+		return commitTracker;
+	}
 
+	/**
+	 * @return retries recorded by invocations without explicit metrics
+	 */
+	public SubmissionMetrics getMetrics() {
+		return metrics;
 	}
 
 	public void queryByRefNo() throws InvalidArgumentException, ProposalException {
 
-		// Create instance of client.
-		// HFClient client = clientHelper.getHFClient();
+		TradeFinance tradeFinance;
+		try {
+			tradeFinance = queryTradeFinanceAsync(args[1], blockingExecutor).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ProposalException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof ProposalException) {
+				throw (ProposalException) e.getCause();
+			}
+			throw new ProposalException(e.getCause());
+		}
+
+		if (logger.isInfoEnabled()) {
+			logger.info("Query result of " + args[1]);
+			logger.info("" + tradeFinance);
+		}
+
+	}
+
+	/**
+	 * Look up the state of a letter of credit, from the cache if no block
+	 * touched it since it was last read.
+	 *
+	 * @param reference
+	 *            LC reference number
+	 * @param executor
+	 *            executor running the blocking query calls
+	 * @return future completed with the state of the letter of credit
+	 */
+	public CompletableFuture<TradeFinance> queryTradeFinanceAsync(String reference, Executor executor) {
+
+		TradeFinance cached = stateCache.get(reference);
+		if (cached != null) {
+			return CompletableFuture.completedFuture(cached);
+		}
+
+		long mark = stateCache.mark();
+		return queryAsync(new String[] { "query", reference }, executor).thenApply(proposalResponse -> {
+			logger.info("Query payload of " + reference + " from peer: " + proposalResponse.getPeer().getName());
+			TradeFinance tradeFinance = TradeFinance
+					.fromByteString(proposalResponse.getProposalResponse().getResponse().getPayload());
+			stateCache.put(reference, tradeFinance, mark);
+			return tradeFinance;
+		});
+	}
+
+	/**
+	 * Look up the states of many letters of credit with a single queryBatch
+	 * proposal for those not cached. The chaincode accepts at most 1000
+	 * references per call, see {@link BatchQuerier} for larger lists.
+	 *
+	 * @param references
+	 *            LC reference numbers
+	 * @param executor
+	 *            executor running the blocking query calls
+	 * @return future completed with the states in the order of the
+	 *         references, null for references not found
+	 */
+	public CompletableFuture<List<TradeFinance>> queryTradeFinanceBatchAsync(List<String> references,
+			Executor executor) {
+
+		final List<TradeFinance> states = new ArrayList<>(references.size());
+		final List<Integer> missing = new ArrayList<>();
+		for (String reference : references) {
+			TradeFinance cached = stateCache.get(reference);
+			if (cached == null) {
+				missing.add(states.size());
+			}
+			states.add(cached);
+		}
+		if (missing.isEmpty()) {
+			return CompletableFuture.completedFuture(states);
+		}
+
+		String[] queryArgs = new String[missing.size() + 1];
+		queryArgs[0] = "queryBatch";
+		for (int i = 0; i < missing.size(); i++) {
+			queryArgs[i + 1] = references.get(missing.get(i));
+		}
+		long mark = stateCache.mark();
+		return queryAsync(queryArgs, executor).thenApply(proposalResponse -> {
+			List<TradeFinance> queried = TradeFinanceReader
+					.readList(proposalResponse.getProposalResponse().getResponse().getPayload());
+			if (queried.size() != missing.size()) {
+				throw new CompletionException(new ProposalException(String.format(
+						"Peer %s returned %d states for %d references", proposalResponse.getPeer().getName(),
+						queried.size(), missing.size())));
+			}
+			for (int i = 0; i < missing.size(); i++) {
+				TradeFinance tradeFinance = queried.get(i);
+				if (tradeFinance != null) {
+					stateCache.put(queryArgs[i + 1], tradeFinance, mark);
+				}
+				states.set(missing.get(i), tradeFinance);
+			}
+			return states;
+		});
+	}
+
+	/**
+	 * List the letters of credit in a range of reference numbers, fetching
+	 * pages in the background.
+	 *
+	 * @param startReference
+	 *            first reference number, empty for the first one on the ledger
+	 * @param endReference
+	 *            reference number to stop before, empty for no end
+	 * @param pageSize
+	 *            number of states per proposal, at most 1000
+	 * @param executor
+	 *            executor running the blocking query calls
+	 * @return iterator over the states in order of reference number
+	 */
+	public Iterator<TradeFinance> listTradeFinance(String startReference, String endReference, int pageSize,
+			Executor executor) {
+		return new TradeFinancePageIterator(bookmark -> queryPageAsync(
+				new String[] { "list", Integer.toString(pageSize), bookmark, startReference, endReference },
+				executor));
+	}
 
-		// Create instance of channel.
-		// Channel channel = clientHelper.getChannelWithPeerAdmin();
+	/**
+	 * List the letters of credit with a status, fetching pages in the
+	 * background.
+	 *
+	 * @param status
+	 * @param bank
+	 *            negotiation or import bank of the letters of credit, empty
+	 *            for any
+	 * @param pageSize
+	 *            number of states per proposal, at most 1000
+	 * @param executor
+	 *            executor running the blocking query calls
+	 * @return iterator over the states in order of reference number
+	 */
+	public Iterator<TradeFinance> queryByStatus(String status, String bank, int pageSize, Executor executor) {
+		return new TradeFinancePageIterator(bookmark -> queryPageAsync(
+				new String[] { "queryByStatus", status, bank, Integer.toString(pageSize), bookmark }, executor));
+	}
 
-		// Create instance of ChaincodeID
-		// ChaincodeID chaincodeID = clientHelper.getChaincodeID();
+	/**
+	 * Query a page of states. The states read only refresh states already
+	 * cached, so that listing many letters of credit does not evict the ones
+	 * in use.
+	 *
+	 * @param args
+	 *            chaincode arguments of a paginated action
+	 * @param executor
+	 *            executor running the blocking query calls
+	 * @return future completed with the page
+	 */
+	public CompletableFuture<TradeFinancePage> queryPageAsync(String[] args, Executor executor) {
+
+		long mark = stateCache.mark();
+		return queryAsync(args, executor).thenApply(proposalResponse -> {
+			TradeFinancePage page = TradeFinancePage
+					.fromByteString(proposalResponse.getProposalResponse().getResponse().getPayload());
+			for (TradeFinance tradeFinance : page.getStates()) {
+				stateCache.refresh(tradeFinance.getReference(), tradeFinance, mark);
+			}
+			return page;
+		});
+	}
+
+	/**
+	 * Query the chaincode on the peer expected to answer fastest, hedging
+	 * with a second peer if it is slow.
+	 *
+	 * @param args
+	 *            chaincode arguments, action first
+	 * @param executor
+	 *            executor running the blocking query calls
+	 * @return future completed with the first successful response
+	 */
+	public CompletableFuture<ProposalResponse> queryAsync(String[] args, Executor executor) {
 
 		QueryByChaincodeRequest queryByChaincodeRequest = client.newQueryProposalRequest();
 		queryByChaincodeRequest.setArgs(args);
 		queryByChaincodeRequest.setFcn("invoke");
 		queryByChaincodeRequest.setChaincodeID(chaincodeID);
+		queryByChaincodeRequest.setProposalWaitTime(ClientConfig.getConfig().getProposalWaitTime());
 
 		Map<String, byte[]> tm2 = new HashMap<>();
 		tm2.put("HyperLedgerFabric", "QueryByChaincodeRequest:JavaSDK".getBytes(UTF_8));
 		tm2.put("method", "QueryByChaincodeRequest".getBytes(UTF_8));
-		queryByChaincodeRequest.setTransientMap(tm2);
-
-		Collection<ProposalResponse> queryProposals = channel.queryByChaincode(queryByChaincodeRequest,
-				channel.getPeers());
-		for (ProposalResponse proposalResponse : queryProposals) {
-			if (!proposalResponse.isVerified() || proposalResponse.getStatus() != ProposalResponse.Status.SUCCESS) {
-				logger.info("Failed query proposal from peer " + proposalResponse.getPeer().getName() + " status: "
-						+ proposalResponse.getStatus() + ". Messages: " + proposalResponse.getMessage()
-						+ ". Was verified : " + proposalResponse.isVerified());
-			} else {
-				String payload = proposalResponse.getProposalResponse().getResponse().getPayload().toStringUtf8();
-				logger.info("Query payload of IMLC-0001 from peer: " + proposalResponse.getPeer().getName());
-				logger.info("" + payload);
-			}
+		try {
+			queryByChaincodeRequest.setTransientMap(tm2);
+		} catch (InvalidArgumentException e) {
+			CompletableFuture<ProposalResponse> failed = new CompletableFuture<>();
+			failed.completeExceptionally(e);
+			return failed;
 		}
 
+		return queryRouter.query(queryByChaincodeRequest, executor);
 	}
 
 }
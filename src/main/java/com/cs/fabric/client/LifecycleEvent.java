@@ -0,0 +1,51 @@
+package com.cs.fabric.client;
+
+import java.util.Arrays;
+
+/**
+ * A single trade finance life cycle event, e.g. ship(IMLC-000001).
+ *
+ * The arguments are passed to the chaincode as is: the action first, the LC
+ * reference second, followed by the action specific values.
+ */
+public class LifecycleEvent {
+
+	private final String[] args;
+
+	public LifecycleEvent(String... args) {
+		if (args == null || args.length < 2) {
+			throw new IllegalArgumentException("Expecting at least an action and a reference number");
+		}
+		this.args = args.clone();
+	}
+
+	/**
+	 * Parse an event from a comma separated line, e.g.
+	 * <i>inspect,IMLC-000001,Chinasystems,China Ocean Shipping Company</i>
+	 *
+	 * @param line
+	 * @return event
+	 */
+	public static LifecycleEvent parse(String line) {
+		String[] fields = line.trim().split("[ \t]*,[ \t]*");
+		return new LifecycleEvent(fields);
+	}
+
+	public String getFunction() {
+		return args[0];
+	}
+
+	public String getReference() {
+		return args[1];
+	}
+
+	public String[] getArgs() {
+		return args.clone();
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(args);
+	}
+
+}
@@ -0,0 +1,51 @@
+package com.cs.fabric.client;
+
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.cs.fabric.client.utils.SessionRegistry;
+
+/**
+ * List the letters of credit on the ledger, all of them or those with a
+ * status, optionally for one negotiation or import bank.
+ *
+ * Usage: ListTradeFinance [status] [bank] [page size]
+ */
+public class ListTradeFinance {
+
+	private static final int DEFAULT_PAGE_SIZE = 200;
+
+	private static final Log logger = LogFactory.getLog(ListTradeFinance.class);
+
+	public static void main(String[] args) throws Exception {
+
+		final String status = args.length > 0 ? args[0] : "";
+		final String bank = args.length > 1 ? args[1] : "";
+		final int pageSize = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_PAGE_SIZE;
+
+		InvokeChainCode invokeChainCode = new InvokeChainCode();
+		// One page in flight at a time
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+
+		try {
+			Iterator<TradeFinance> states = status.isEmpty()
+					? invokeChainCode.listTradeFinance("", "", pageSize, executor)
+					: invokeChainCode.queryByStatus(status, bank, pageSize, executor);
+			long count = 0;
+			while (states.hasNext()) {
+				logger.info(states.next());
+				count++;
+			}
+			logger.info(count + " letters of credit");
+		} finally {
+			executor.shutdown();
+			invokeChainCode.close();
+			SessionRegistry.shutdown();
+		}
+
+	}
+}
@@ -0,0 +1,61 @@
+package com.cs.fabric.client;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.cs.fabric.client.utils.SessionRegistry;
+
+/**
+ * Look up the states of a file of LC references, one reference per line, and
+ * log references not found on the ledger, e.g. for end of day reconciliation.
+ *
+ * Usage: QueryBatch &lt;references file&gt; [chunk size] [parallel chunks]
+ */
+public class QueryBatch {
+
+	private static final int DEFAULT_CHUNK_SIZE = 500;
+	private static final int DEFAULT_PARALLELISM = 4;
+
+	private static final Log logger = LogFactory.getLog(QueryBatch.class);
+
+	public static void main(String[] args) throws Exception {
+
+		if (args.length < 1) {
+			logger.error("Usage: QueryBatch <references file> [chunk size] [parallel chunks]");
+			return;
+		}
+		final int chunkSize = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_CHUNK_SIZE;
+		final int parallelism = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_PARALLELISM;
+
+		InvokeChainCode invokeChainCode = new InvokeChainCode();
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+
+		try (Stream<String> lines = Files.lines(Paths.get(args[0]), UTF_8)) {
+			Iterator<String> references = lines.map(String::trim)
+					.filter(line -> !line.isEmpty() && !line.startsWith("#")).iterator();
+
+			BatchQuerier querier = new BatchQuerier(invokeChainCode, executor, chunkSize, parallelism);
+			querier.query(references, (reference, tradeFinance) -> {
+				if (tradeFinance == null) {
+					logger.warn("No state for " + reference);
+				} else {
+					logger.debug(tradeFinance);
+				}
+			});
+		} finally {
+			executor.shutdown();
+			invokeChainCode.close();
+			SessionRegistry.shutdown();
+		}
+
+	}
+}
@@ -0,0 +1,98 @@
+package com.cs.fabric.client;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.hyperledger.fabric.protos.peer.TransactionPackage.TxValidationCode;
+
+/**
+ * Counters for submitted transactions. Safe to update from any thread.
+ */
+public class SubmissionMetrics {
+
+	private final LongAdder submitted = new LongAdder();
+	private final LongAdder committed = new LongAdder();
+	private final LongAdder invalid = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder latencyMillis = new LongAdder();
+	private final Map<TxValidationCode, LongAdder> retries = new ConcurrentHashMap<>();
+
+	void submitted() {
+		submitted.increment();
+	}
+
+	void completed(EventOutcome outcome) {
+		if (outcome.isCommitted()) {
+			committed.increment();
+		} else if (outcome.getError() == null) {
+			invalid.increment();
+		} else {
+			failed.increment();
+		}
+		latencyMillis.add(outcome.getLatencyMillis());
+	}
+
+	void retried(TxValidationCode code) {
+		retries.computeIfAbsent(code, c -> new LongAdder()).increment();
+	}
+
+	public long getSubmitted() {
+		return submitted.sum();
+	}
+
+	/**
+	 * @return number of transactions committed as valid
+	 */
+	public long getCommitted() {
+		return committed.sum();
+	}
+
+	/**
+	 * @return number of transactions committed but marked invalid
+	 */
+	public long getInvalid() {
+		return invalid.sum();
+	}
+
+	/**
+	 * @return number of transactions that failed before commit
+	 */
+	public long getFailed() {
+		return failed.sum();
+	}
+
+	public long getCompleted() {
+		return getCommitted() + getInvalid() + getFailed();
+	}
+
+	/**
+	 * @return number of transactions endorsed and submitted again after a
+	 *         retryable validation failure
+	 */
+	public long getRetries() {
+		return retries.values().stream().mapToLong(LongAdder::sum).sum();
+	}
+
+	/**
+	 * @param code
+	 * @return number of retries caused by the given validation code
+	 */
+	public long getRetries(TxValidationCode code) {
+		LongAdder count = retries.get(code);
+		return count == null ? 0 : count.sum();
+	}
+
+	public double getAverageLatencyMillis() {
+		long completed = getCompleted();
+		return completed == 0 ? 0 : (double) latencyMillis.sum() / completed;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"submitted: %d, committed: %d, invalid: %d, failed: %d, retries: %d, average latency: %.1f ms",
+				getSubmitted(), getCommitted(), getInvalid(), getFailed(), getRetries(), getAverageLatencyMillis());
+	}
+
+}
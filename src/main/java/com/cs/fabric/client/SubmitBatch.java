@@ -0,0 +1,70 @@
+package com.cs.fabric.client;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.cs.fabric.client.utils.SessionRegistry;
+
+/**
+ * Submit a file of life cycle events, one comma separated event per line, e.g.
+ *
+ * <pre>
+ * ship,IMLC-000001
+ * present,IMLC-000002,Bank of China
+ * </pre>
+ *
+ * With a batch size above 1, events are packed into batch transactions of up
+ * to that many events. The window counts events and must not be smaller than
+ * the batch size.
+ *
+ * Usage: SubmitBatch &lt;events file&gt; [window] [threads] [batch size]
+ */
+public class SubmitBatch {
+
+	private static final int DEFAULT_WINDOW = 100;
+	private static final int DEFAULT_THREADS = 8;
+	private static final int DEFAULT_BATCH_SIZE = 1;
+
+	private static final Log logger = LogFactory.getLog(SubmitBatch.class);
+
+	public static void main(String[] args) throws Exception {
+
+		if (args.length < 1) {
+			logger.error("Usage: SubmitBatch <events file> [window] [threads] [batch size]");
+			return;
+		}
+		final int window = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_WINDOW;
+		final int threads = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_THREADS;
+		final int batchSize = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_BATCH_SIZE;
+		if (batchSize > window) {
+			logger.error("Batch size " + batchSize + " must not exceed the window " + window);
+			return;
+		}
+
+		InvokeChainCode invokeChainCode = new InvokeChainCode();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+		try (Stream<String> lines = Files.lines(Paths.get(args[0]), UTF_8)) {
+			Iterator<LifecycleEvent> events = lines.map(String::trim)
+					.filter(line -> !line.isEmpty() && !line.startsWith("#")).map(LifecycleEvent::parse).iterator();
+
+			EventBatcher batcher = batchSize > 1
+					? invokeChainCode.newEventBatcher(executor).maxEvents(batchSize).build() : null;
+			BatchSubmitter submitter = new BatchSubmitter(invokeChainCode, executor, window, batcher);
+			submitter.submit(events, outcome -> logger.info(outcome));
+		} finally {
+			executor.shutdown();
+			SessionRegistry.shutdown();
+		}
+
+	}
+}
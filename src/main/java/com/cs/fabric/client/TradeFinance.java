@@ -0,0 +1,132 @@
+package com.cs.fabric.client;
+
+import java.io.ByteArrayInputStream;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Ledger state of a letter of credit, as stored by the trade_finance
+ * chaincode under its reference number.
+ *
+ * A state read from a binary payload keeps the payload and only the offsets
+ * of its fields; each field is decoded the first time it is asked for, so
+ * callers that look at the status alone never build the other strings.
+ */
+public class TradeFinance {
+
+	// Fields by tag - 1, see TradeFinanceReader
+	private final String[] fields;
+	private final ByteString state;
+	private final int[] offsets;
+
+	public TradeFinance(String reference, String exporter, String shippingCorporation, String negotiationBank,
+			String importBank, String status) {
+		this.fields = new String[] { reference, exporter, shippingCorporation, negotiationBank, importBank,
+				status };
+		this.state = null;
+		this.offsets = null;
+	}
+
+	/**
+	 * @param state
+	 *            binary state
+	 * @param offsets
+	 *            field offsets in the state, see
+	 *            {@link TradeFinanceReader#index(ByteString)}
+	 */
+	TradeFinance(ByteString state, int[] offsets) {
+		this.fields = new String[TradeFinanceReader.TAG_STATUS];
+		this.state = state;
+		this.offsets = offsets;
+	}
+
+	/**
+	 * Decode a state in the JSON encoding of earlier chaincode versions.
+	 *
+	 * @param payload
+	 * @return decoded state
+	 */
+	public static TradeFinance fromJson(byte[] payload) {
+		try (JsonReader reader = Json.createReader(new ByteArrayInputStream(payload))) {
+			return fromJson(reader.readObject());
+		}
+	}
+
+	/**
+	 * Read the state returned by the chaincode query action, in the binary
+	 * encoding or legacy JSON. A binary state is not copied and its fields are
+	 * decoded when first asked for.
+	 *
+	 * @param payload
+	 * @return state
+	 */
+	public static TradeFinance fromByteString(ByteString payload) {
+		return TradeFinanceReader.read(payload);
+	}
+
+	static TradeFinance fromJson(JsonObject json) {
+		return new TradeFinance(json.getString("reference", ""), json.getString("exporter", ""),
+				json.getString("shippingCorporation", ""), json.getString("negotiationBank", ""),
+				json.getString("importBank", ""), json.getString("status", ""));
+	}
+
+	public String getReference() {
+		return field(TradeFinanceReader.TAG_REFERENCE);
+	}
+
+	public String getExporter() {
+		return field(TradeFinanceReader.TAG_EXPORTER);
+	}
+
+	public String getShippingCorporation() {
+		return field(TradeFinanceReader.TAG_SHIPPING_CORPORATION);
+	}
+
+	public String getNegotiationBank() {
+		return field(TradeFinanceReader.TAG_NEGOTIATION_BANK);
+	}
+
+	public String getImportBank() {
+		return field(TradeFinanceReader.TAG_IMPORT_BANK);
+	}
+
+	public String getStatus() {
+		return field(TradeFinanceReader.TAG_STATUS);
+	}
+
+	/**
+	 * Compare the status without decoding it.
+	 *
+	 * @param status
+	 * @return true if the letter of credit has the status
+	 */
+	public boolean hasStatus(String status) {
+		String decoded = fields[TradeFinanceReader.TAG_STATUS - 1];
+		if (decoded != null || state == null) {
+			return status.equals(decoded);
+		}
+		return TradeFinanceReader.fieldEquals(state, offsets, TradeFinanceReader.TAG_STATUS, status);
+	}
+
+	private String field(int tag) {
+		String value = fields[tag - 1];
+		if (value == null && state != null) {
+			// Decoding twice in a race is harmless
+			value = TradeFinanceReader.field(state, offsets, tag);
+			fields[tag - 1] = value;
+		}
+		return value;
+	}
+
+	@Override
+	public String toString() {
+		return "TradeFinance [reference=" + getReference() + ", exporter=" + getExporter()
+				+ ", shippingCorporation=" + getShippingCorporation() + ", negotiationBank=" + getNegotiationBank()
+				+ ", importBank=" + getImportBank() + ", status=" + getStatus() + "]";
+	}
+
+}
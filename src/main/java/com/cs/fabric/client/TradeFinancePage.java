@@ -0,0 +1,47 @@
+package com.cs.fabric.client;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * A page of ledger states returned by the list and queryByStatus actions of
+ * the trade_finance chaincode.
+ */
+public class TradeFinancePage {
+
+	private final List<TradeFinance> states;
+	private final String bookmark;
+
+	public TradeFinancePage(List<TradeFinance> states, String bookmark) {
+		this.states = Collections.unmodifiableList(states);
+		this.bookmark = bookmark;
+	}
+
+	/**
+	 * Decode the page returned by the chaincode.
+	 *
+	 * @param payload
+	 * @return decoded page
+	 */
+	public static TradeFinancePage fromByteString(ByteString payload) {
+		return TradeFinanceReader.readPage(payload);
+	}
+
+	public List<TradeFinance> getStates() {
+		return states;
+	}
+
+	/**
+	 * @return bookmark to pass for the next page, empty after the last page
+	 */
+	public String getBookmark() {
+		return bookmark;
+	}
+
+	public boolean isLast() {
+		return bookmark.isEmpty();
+	}
+
+}
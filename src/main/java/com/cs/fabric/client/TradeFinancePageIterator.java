@@ -0,0 +1,73 @@
+package com.cs.fabric.client;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+/**
+ * Iterates over the states of a paginated chaincode query. Once the caller
+ * has moved on to a page, the page after it is requested as soon as that page
+ * has arrived, so that it is usually there by the time the caller has
+ * consumed the current one. At most two pages are held, the one being
+ * consumed and the next, which keeps memory bounded however many states the
+ * query returns.
+ *
+ * A page that cannot be fetched ends the iteration with a
+ * {@link CompletionException} holding the cause.
+ */
+public class TradeFinancePageIterator implements Iterator<TradeFinance> {
+
+	private final Function<String, CompletableFuture<TradeFinancePage>> fetch;
+	private Iterator<TradeFinance> current = Collections.emptyIterator();
+	private CompletableFuture<TradeFinancePage> next;
+
+	/**
+	 * @param fetch
+	 *            requests the page at a bookmark, the first page at the empty
+	 *            bookmark
+	 */
+	public TradeFinancePageIterator(Function<String, CompletableFuture<TradeFinancePage>> fetch) {
+		this.fetch = fetch;
+		this.next = fetch.apply("");
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (!current.hasNext()) {
+			if (next == null) {
+				return false;
+			}
+			// Request the following page from the thread delivering this one
+			CompletableFuture<CompletableFuture<TradeFinancePage>> following = next
+					.thenApply(arrived -> arrived.isLast() ? null : fetch.apply(arrived.getBookmark()));
+			TradeFinancePage page = await(next);
+			next = following.join();
+			current = page.getStates().iterator();
+		}
+		return true;
+	}
+
+	@Override
+	public TradeFinance next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return current.next();
+	}
+
+	private static TradeFinancePage await(CompletableFuture<TradeFinancePage> page) {
+		try {
+			return page.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CompletionException(e);
+		} catch (ExecutionException e) {
+			throw new CompletionException(e.getCause());
+		}
+	}
+
+}
@@ -0,0 +1,175 @@
+package com.cs.fabric.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.json.Json;
+import javax.json.JsonReader;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+
+/**
+ * Reads the ledger states written by the trade_finance chaincode straight
+ * from the payload of a proposal response.
+ *
+ * A state is the version byte followed by the tag, uvarint length and UTF-8
+ * bytes of each non empty field; unknown tags are skipped. States without the
+ * version byte are JSON written by earlier versions of the chaincode. Lists
+ * of states are the version byte followed by length prefixed states.
+ *
+ * Reading a binary state only records where its fields are, the
+ * {@link TradeFinance} decodes them on demand. States of a list are copied
+ * out of the payload, so that a cached state does not keep the whole list
+ * alive.
+ */
+final class TradeFinanceReader {
+
+	static final byte VERSION = 1;
+
+	static final int TAG_REFERENCE = 1;
+	static final int TAG_EXPORTER = 2;
+	static final int TAG_SHIPPING_CORPORATION = 3;
+	static final int TAG_NEGOTIATION_BANK = 4;
+	static final int TAG_IMPORT_BANK = 5;
+	static final int TAG_STATUS = 6;
+
+	private TradeFinanceReader() {
+	}
+
+	/**
+	 * @param state
+	 *            state returned by the query action
+	 * @return state decoding its fields on demand, or decoded legacy JSON
+	 */
+	static TradeFinance read(ByteString state) {
+		if (state.isEmpty() || state.byteAt(0) != VERSION) {
+			try (JsonReader reader = Json.createReader(state.newInput())) {
+				return TradeFinance.fromJson(reader.readObject());
+			}
+		}
+		return new TradeFinance(state, index(state));
+	}
+
+	/**
+	 * Find the fields of a binary state without decoding them.
+	 *
+	 * @param state
+	 * @return start and length of the field with tag t at 2t and 2t + 1,
+	 *         start -1 if the field is empty
+	 */
+	static int[] index(ByteString state) {
+		int[] offsets = new int[2 * (TAG_STATUS + 1)];
+		Arrays.fill(offsets, -1);
+		int size = state.size();
+		int position = 1;
+		while (position < size) {
+			int tag = state.byteAt(position++);
+			int length = 0;
+			for (int shift = 0;; shift += 7) {
+				if (position >= size || shift > 28) {
+					throw new IllegalArgumentException("Malformed trade finance state: truncated field " + tag);
+				}
+				byte b = state.byteAt(position++);
+				length |= (b & 0x7f) << shift;
+				if (b >= 0) {
+					break;
+				}
+			}
+			if (length < 0 || length > size - position) {
+				throw new IllegalArgumentException("Malformed trade finance state: truncated field " + tag);
+			}
+			if (tag >= TAG_REFERENCE && tag <= TAG_STATUS) {
+				offsets[2 * tag] = position;
+				offsets[2 * tag + 1] = length;
+			}
+			position += length;
+		}
+		return offsets;
+	}
+
+	/**
+	 * @return decoded field, empty if not set
+	 */
+	static String field(ByteString state, int[] offsets, int tag) {
+		int start = offsets[2 * tag];
+		return start < 0 ? "" : state.substring(start, start + offsets[2 * tag + 1]).toStringUtf8();
+	}
+
+	/**
+	 * Compare a field with a value without decoding the field, unless the
+	 * value is not ASCII.
+	 */
+	static boolean fieldEquals(ByteString state, int[] offsets, int tag, String value) {
+		int start = offsets[2 * tag];
+		if (start < 0) {
+			return value.isEmpty();
+		}
+		for (int i = 0; i < value.length(); i++) {
+			if (value.charAt(i) >= 0x80) {
+				return field(state, offsets, tag).equals(value);
+			}
+		}
+		if (value.length() != offsets[2 * tag + 1]) {
+			return false;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			if (state.byteAt(start + i) != value.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param payload
+	 *            response of the queryBatch action
+	 * @return states in the order of the queried references, null for
+	 *         references not found
+	 */
+	static List<TradeFinance> readList(ByteString payload) {
+		List<TradeFinance> states = new ArrayList<>();
+		try {
+			CodedInputStream in = open(payload);
+			while (!in.isAtEnd()) {
+				ByteString state = in.readBytes();
+				states.add(state.isEmpty() ? null : read(state));
+			}
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Malformed list of trade finance states: " + e.getMessage(), e);
+		}
+		return states;
+	}
+
+	/**
+	 * @param payload
+	 *            response of the list and queryByStatus actions: states up to
+	 *            an empty one, followed by the bookmark
+	 * @return decoded page
+	 */
+	static TradeFinancePage readPage(ByteString payload) {
+		List<TradeFinance> states = new ArrayList<>();
+		try {
+			CodedInputStream in = open(payload);
+			ByteString state;
+			while (!(state = in.readBytes()).isEmpty()) {
+				states.add(read(state));
+			}
+			return new TradeFinancePage(states, payload.substring(in.getTotalBytesRead()).toStringUtf8());
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Malformed page of trade finance states: " + e.getMessage(), e);
+		}
+	}
+
+	private static CodedInputStream open(ByteString payload) throws IOException {
+		CodedInputStream in = payload.newCodedInput();
+		byte version = payload.isEmpty() ? 0 : in.readRawByte();
+		if (version != VERSION) {
+			throw new IOException("Unsupported version " + version);
+		}
+		return in;
+	}
+
+}
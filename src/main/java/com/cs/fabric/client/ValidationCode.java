@@ -0,0 +1,35 @@
+package com.cs.fabric.client;
+
+import org.hyperledger.fabric.protos.peer.TransactionPackage.TxValidationCode;
+
+/**
+ * Classifies the commit validation code of a transaction, as set by the
+ * committing peer, into retryable and final outcomes.
+ */
+public final class ValidationCode {
+
+	private ValidationCode() {
+	}
+
+	/**
+	 * @param code
+	 *            validation code as reported by the transaction event
+	 * @return matching validation code, INVALID_OTHER_REASON if unknown
+	 */
+	public static TxValidationCode forCode(byte code) {
+		TxValidationCode validationCode = TxValidationCode.forNumber(code & 0xff);
+		return validationCode != null ? validationCode : TxValidationCode.INVALID_OTHER_REASON;
+	}
+
+	/**
+	 * A transaction invalidated because the state it read changed before it
+	 * was committed. Endorsing it again against the new state may succeed.
+	 *
+	 * @param code
+	 * @return true if the transaction can be endorsed and submitted again
+	 */
+	public static boolean isRetryable(TxValidationCode code) {
+		return code == TxValidationCode.MVCC_READ_CONFLICT || code == TxValidationCode.PHANTOM_READ_CONFLICT;
+	}
+
+}
@@ -0,0 +1,35 @@
+package com.cs.fabric.client.utils;
+
+import org.hyperledger.fabric.sdk.Enrollment;
+import org.hyperledger.fabric.sdk.User;
+
+/**
+ * The calls user onboarding makes to a certificate authority. Implemented by
+ * {@link HFCACertificateAuthority} for a Fabric CA and by
+ * {@link StandInCertificateAuthority} for runs without one.
+ */
+public interface CertificateAuthority {
+
+	/**
+	 * Register a user.
+	 *
+	 * @param name
+	 * @param affiliation
+	 * @param secret
+	 *            enrollment secret to register the user with
+	 * @param registrar
+	 *            enrolled user allowed to register users
+	 * @return the enrollment secret
+	 */
+	String register(String name, String affiliation, String secret, User registrar) throws Exception;
+
+	/**
+	 * Enroll a registered user.
+	 *
+	 * @param name
+	 * @param secret
+	 * @return key and certificate of the user
+	 */
+	Enrollment enroll(String name, String secret) throws Exception;
+
+}
@@ -9,17 +9,18 @@ import java.nio.file.Paths;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.spec.InvalidKeySpecException;
-import java.util.Collection;
-import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.hyperledger.fabric.sdk.Channel;
+import org.hyperledger.fabric.sdk.ChaincodeEndorsementPolicy;
 import org.hyperledger.fabric.sdk.ChaincodeID;
 import org.hyperledger.fabric.sdk.EventHub;
 import org.hyperledger.fabric.sdk.HFClient;
-import org.hyperledger.fabric.sdk.Orderer;
+import org.hyperledger.fabric.sdk.exception.ChaincodeEndorsementPolicyParseException;
 import org.hyperledger.fabric.sdk.exception.CryptoException;
 import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
 import org.hyperledger.fabric.sdk.exception.TransactionException;
@@ -27,6 +28,9 @@ import org.hyperledger.fabric.sdk.security.CryptoSuite;
 import org.hyperledger.fabric_ca.sdk.HFCAClient;
 
 import com.cs.fabric.sdk.utils.ClientConfig;
+import com.cs.fabric.sdk.utils.ConnectionPlan;
+import com.cs.fabric.sdk.utils.ConnectionPlan.ChannelPlan;
+import com.cs.fabric.sdk.utils.ConnectionPlan.Endpoint;
 import com.cs.fabric.sdkintegration.SampleOrg;
 import com.cs.fabric.sdkintegration.SampleStore;
 import com.cs.fabric.sdkintegration.SampleUser;
@@ -39,7 +43,9 @@ public class ClientHelper {
 	private static final String CHAIN_CODE_NAME = "trade_finance_go";
 	private static final String CHAIN_CODE_PATH = "github.com/trade_finance";
 	private static final String CHAIN_CODE_VERSION = "1";
-	private static final ClientConfig clientConfig = ClientConfig.getConfig();
+	private static final String TEST_FIXTURES_PATH = "src/test/fixture";
+	private static final String ENDORSEMENT_POLICY_PATH = TEST_FIXTURES_PATH
+			+ "/sdkintegration/chaincodeendorsementpolicy.yaml";
 
 	private static final Log logger = LogFactory.getLog(ClientHelper.class);
 
@@ -51,7 +57,7 @@ public class ClientHelper {
 		SampleStore sampleStore = new SampleStore(sampleStoreFile);
 
 		// Get Org1 from configuration
-		SampleOrg sampleOrg = clientConfig.getIntegrationTestsSampleOrg("peerOrg1");
+		SampleOrg sampleOrg = ClientConfig.getConfig().getIntegrationTestsSampleOrg("peerOrg1");
 		logger.info("Get peerOrg1 SampleOrg");
 
 		// Set up HFCA for Org1
@@ -76,6 +82,7 @@ public class ClientHelper {
 			throws IOException, NoSuchAlgorithmException, NoSuchProviderException, InvalidKeySpecException {
 		final String sampleOrgName = sampleOrg.getName();
 		final String sampleOrgDomainName = sampleOrg.getDomainName();
+		final ClientConfig clientConfig = ClientConfig.getConfig();
 
 		SampleUser peerOrgAdmin = sampleStore.getMember(sampleOrgName + "Admin", sampleOrgName, sampleOrg.getMSPID(),
 				findFile_sk(Paths.get(clientConfig.getTestChannelPath(), "crypto-config/peerOrganizations/",
@@ -143,17 +150,27 @@ public class ClientHelper {
 //
 //	}
 
-	private Channel getChannel(SampleOrg sampleOrg, HFClient client)
+	/**
+	 * Build and initialize the foo channel for an org, using the given client.
+	 * The channel is built from the connection plan when a network config is
+	 * configured and describes it, otherwise from the org's locations.
+	 */
+	public Channel getChannel(SampleOrg sampleOrg, HFClient client)
 			throws NoSuchAlgorithmException, NoSuchProviderException, InvalidKeySpecException, IOException,
 			CryptoException, InvalidArgumentException, TransactionException {
 
+		final ClientConfig clientConfig = ClientConfig.getConfig();
+		ConnectionPlan plan = clientConfig.getConnectionPlan();
+		if (plan != null && plan.getChannel(FOO_CHANNEL_NAME) != null) {
+			return getChannel(plan, plan.getChannel(FOO_CHANNEL_NAME), client);
+		}
+
 		Channel channel = client.newChannel(FOO_CHANNEL_NAME);
 		logger.info("Get Chain " + FOO_CHANNEL_NAME);
 
 		//channel.setTransactionWaitTime(clientConfig.getTransactionWaitTime());
 		//channel.setDeployWaitTime(clientConfig.getDeployWaitTime());
 
-		// Collection<Peer> channelPeers = new LinkedList<>();
 		for (String peerName : sampleOrg.getPeerNames()) {
 			String peerLocation = sampleOrg.getPeerLocation(peerName);
 
@@ -161,25 +178,16 @@ public class ClientHelper {
 			if (peerProperties == null) {
 				peerProperties = new Properties();
 			}
-			// Example of setting specific options on grpc's
-			// ManagedChannelBuilder
-			peerProperties.put("grpc.ManagedChannelBuilderOption.maxInboundMessageSize", 9000000);
-			// channelPeers.add(client.newPeer(peerName, peerLocation,
-			// peerProperties));
+			// gRPC options come from the peer's tuning profile, see GrpcProfile
 			channel.addPeer(client.newPeer(peerName, peerLocation, peerProperties));
 		}
 
-		Collection<Orderer> orderers = new LinkedList<>();
-
+		// All orderers, broadcasts are spread over them, see OrdererBalancer
 		for (String orderName : sampleOrg.getOrdererNames()) {
-			orderers.add(client.newOrderer(orderName, sampleOrg.getOrdererLocation(orderName),
+			channel.addOrderer(client.newOrderer(orderName, sampleOrg.getOrdererLocation(orderName),
 					clientConfig.getOrdererProperties(orderName)));
 		}
 
-		// Just pick the first orderer in the list to create the chain.
-		Orderer anOrderer = orderers.iterator().next();
-		channel.addOrderer(anOrderer);
-
 		for (String eventHubName : sampleOrg.getEventHubNames()) {
 			EventHub eventHub = client.newEventHub(eventHubName, sampleOrg.getEventHubLocation(eventHubName),
 					clientConfig.getEventHubProperties(eventHubName));
@@ -193,6 +201,77 @@ public class ClientHelper {
 		return channel;
 	}
 
+	/**
+	 * Build and initialize a channel from a connection plan. All endpoint
+	 * properties, including TLS certificates, are already in memory.
+	 */
+	public Channel getChannel(ConnectionPlan plan, ChannelPlan channelPlan, HFClient client)
+			throws InvalidArgumentException, TransactionException {
+
+		Channel channel = client.newChannel(channelPlan.getName());
+		logger.info("Get Chain " + channelPlan.getName() + " from network config " + plan.getName());
+
+		for (String peerName : channelPlan.getPeerNames()) {
+			Endpoint peer = endpoint(plan.getPeer(peerName), "peer", peerName);
+			channel.addPeer(client.newPeer(peerName, peer.getUrl(), peer.getProperties()));
+		}
+
+		// All orderers, broadcasts are spread over them, see OrdererBalancer
+		for (String ordererName : channelPlan.getOrdererNames()) {
+			Endpoint orderer = endpoint(plan.getOrderer(ordererName), "orderer", ordererName);
+			channel.addOrderer(client.newOrderer(ordererName, orderer.getUrl(), orderer.getProperties()));
+		}
+
+		for (String eventHubName : channelPlan.getEventSourceNames()) {
+			Endpoint eventHub = plan.getEventHub(eventHubName);
+			if (eventHub != null) {
+				channel.addEventHub(client.newEventHub(eventHubName, eventHub.getUrl(), eventHub.getProperties()));
+			}
+		}
+
+		if (!channel.isInitialized()) {
+			channel.initialize();
+		}
+
+		return channel;
+	}
+
+	private static Endpoint endpoint(Endpoint endpoint, String type, String name) throws InvalidArgumentException {
+		if (endpoint == null) {
+			throw new InvalidArgumentException(format("Network config has no %s named %s", type, name));
+		}
+		return endpoint;
+	}
+
+	/**
+	 * policy OR(Org1MSP.member, Org2MSP.member) meaning 1 signature from
+	 * someone in either Org1 or Org2 See README.md Chaincode endorsement
+	 * policies section for more details.
+	 */
+	public ChaincodeEndorsementPolicy getChaincodeEndorsementPolicy()
+			throws ChaincodeEndorsementPolicyParseException, IOException {
+		ChaincodeEndorsementPolicy chaincodeEndorsementPolicy = new ChaincodeEndorsementPolicy();
+		chaincodeEndorsementPolicy.fromYamlFile(new File(ENDORSEMENT_POLICY_PATH));
+		return chaincodeEndorsementPolicy;
+	}
+
+	/**
+	 * @return MSP id by peer name, for the peers of all configured orgs
+	 */
+	public Map<String, String> getPeerMspIds() {
+		final ClientConfig clientConfig = ClientConfig.getConfig();
+		if (clientConfig.getConnectionPlan() != null) {
+			return clientConfig.getConnectionPlan().getPeerMspIds();
+		}
+		Map<String, String> peerMspIds = new HashMap<>();
+		for (SampleOrg sampleOrg : clientConfig.getIntegrationTestsSampleOrgs()) {
+			for (String peerName : sampleOrg.getPeerNames()) {
+				peerMspIds.put(peerName, sampleOrg.getMSPID());
+			}
+		}
+		return peerMspIds;
+	}
+
 	public ChaincodeID getChaincodeID() {
 		return ChaincodeID.newBuilder().setName(CHAIN_CODE_NAME).setVersion(CHAIN_CODE_VERSION).setPath(CHAIN_CODE_PATH)
 				.build();
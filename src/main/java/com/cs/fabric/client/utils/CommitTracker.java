@@ -0,0 +1,134 @@
+package com.cs.fabric.client.utils;
+
+import static java.lang.String.format;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hyperledger.fabric.sdk.BlockEvent;
+import org.hyperledger.fabric.sdk.BlockListener;
+
+/**
+ * Tracks the commit of every transaction submitted on a channel with one
+ * block listener.
+ *
+ * Pending transactions are kept in a map by transaction ID, so a block costs
+ * one lookup per transaction it holds, however many transactions are in
+ * flight. Transactions not committed before their deadline fail with a
+ * {@link TimeoutException}. Other block listeners can be attached to reuse
+ * the same block events.
+ */
+public class CommitTracker implements BlockListener {
+
+	private static final Log logger = LogFactory.getLog(CommitTracker.class);
+
+	private final ConcurrentMap<String, Pending> pending = new ConcurrentHashMap<>();
+	private final List<BlockListener> listeners = new CopyOnWriteArrayList<>();
+	private final AtomicLong blockHeight = new AtomicLong();
+
+	/**
+	 * Wait for the commit of a transaction. Call before the transaction is
+	 * sent to the orderer, so its block can not be missed.
+	 *
+	 * @param transactionID
+	 * @param timeout
+	 *            milliseconds to wait for the commit
+	 * @return future completed with the commit event of the transaction
+	 */
+	public CompletableFuture<BlockEvent.TransactionEvent> await(final String transactionID, final long timeout) {
+		final Pending transaction = new Pending();
+		Pending previous = pending.putIfAbsent(transactionID, transaction);
+		if (previous != null) {
+			return previous.future;
+		}
+		transaction.expiry = FutureHelper.schedule(() -> {
+			if (pending.remove(transactionID, transaction)) {
+				transaction.future.completeExceptionally(new TimeoutException(
+						format("commit of transaction %s timed out after %d ms", transactionID, timeout)));
+			}
+		}, timeout);
+		return transaction.future;
+	}
+
+	/**
+	 * Stop waiting for a transaction, e.g. because the orderer rejected it.
+	 *
+	 * @param transactionID
+	 * @param cause
+	 */
+	public void fail(String transactionID, Throwable cause) {
+		Pending transaction = pending.remove(transactionID);
+		if (transaction != null) {
+			transaction.cancelExpiry();
+			transaction.future.completeExceptionally(cause);
+		}
+	}
+
+	/**
+	 * Pass every block received by this tracker on to a listener.
+	 *
+	 * @param listener
+	 */
+	public void addBlockListener(BlockListener listener) {
+		listeners.add(listener);
+	}
+
+	@Override
+	public void received(BlockEvent blockEvent) {
+		blockHeight.accumulateAndGet(blockEvent.getBlockNumber() + 1, Math::max);
+
+		if (!pending.isEmpty()) {
+			for (BlockEvent.TransactionEvent transactionEvent : blockEvent.getTransactionEvents()) {
+				Pending transaction = pending.remove(transactionEvent.getTransactionID());
+				if (transaction != null) {
+					transaction.cancelExpiry();
+					transaction.future.complete(transactionEvent);
+				}
+			}
+		}
+
+		for (BlockListener listener : listeners) {
+			try {
+				listener.received(blockEvent);
+			} catch (RuntimeException e) {
+				logger.error("Block listener failed on block " + blockEvent.getBlockNumber(), e);
+			}
+		}
+	}
+
+	/**
+	 * @return number of blocks of the channel known to this tracker
+	 */
+	public long getBlockHeight() {
+		return blockHeight.get();
+	}
+
+	/**
+	 * @return number of transactions waiting for their commit
+	 */
+	public int getPendingCount() {
+		return pending.size();
+	}
+
+	private static final class Pending {
+
+		final CompletableFuture<BlockEvent.TransactionEvent> future = new CompletableFuture<>();
+		volatile ScheduledFuture<?> expiry;
+
+		void cancelExpiry() {
+			ScheduledFuture<?> scheduled = expiry;
+			if (scheduled != null) {
+				scheduled.cancel(false);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,203 @@
+package com.cs.fabric.client.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hyperledger.fabric.sdk.Channel;
+import org.hyperledger.fabric.sdk.Peer;
+import org.hyperledger.fabric.sdk.ProposalResponse;
+import org.hyperledger.fabric.sdk.SDKUtils;
+import org.hyperledger.fabric.sdk.TransactionProposalRequest;
+import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
+import org.hyperledger.fabric.sdk.exception.ProposalException;
+
+/**
+ * Collects endorsements for a transaction proposal and completes as soon as a
+ * consistent subset of the responses satisfies the endorsement policy.
+ *
+ * The SDK assigns one transaction ID per sendTransactionProposal call and
+ * returns only when every addressed peer has answered, so endorsements can
+ * only be combined within one call. The collector therefore works with
+ * disjoint peer sets, each able to satisfy the policy on its own. The
+ * cheapest set is asked first. If it has not produced an endorsement after
+ * the hedge delay, or fails, the next set is asked as well, and the first set
+ * to produce a satisfying endorsement wins. Responses of the other sets are
+ * ignored and never ordered, so a slow peer only costs one hedge delay.
+ */
+public class EndorsementCollector {
+
+	private static final Log logger = LogFactory.getLog(EndorsementCollector.class);
+
+	private final Channel channel;
+	private final EndorsementPeerSelector selector;
+	private final long hedgeDelay;
+
+	/**
+	 * @param channel
+	 * @param selector
+	 *            chooses the peer sets and tracks their latency
+	 * @param hedgeDelay
+	 *            milliseconds to wait for a peer set before asking the next
+	 */
+	public EndorsementCollector(Channel channel, EndorsementPeerSelector selector, long hedgeDelay) {
+		this.channel = channel;
+		this.selector = selector;
+		this.hedgeDelay = hedgeDelay;
+	}
+
+	/**
+	 * @param request
+	 * @param executor
+	 *            executor running the blocking proposal calls
+	 * @return future completed with a consistent, policy satisfying set of
+	 *         endorsements
+	 */
+	public CompletableFuture<Collection<ProposalResponse>> collect(TransactionProposalRequest request,
+			Executor executor) {
+		PendingEndorsement pending = new PendingEndorsement(request, executor, selector.selectDisjoint());
+		pending.launchNext();
+		return pending.result;
+	}
+
+	/**
+	 * @param responses
+	 *            responses to one proposal
+	 * @return largest consistent set of successful responses satisfying the
+	 *         policy, null if there is none
+	 */
+	Collection<ProposalResponse> satisfying(Collection<ProposalResponse> responses)
+			throws InvalidArgumentException {
+
+		List<ProposalResponse> successful = new ArrayList<>();
+		for (ProposalResponse response : responses) {
+			if (response.getStatus() == ProposalResponse.Status.SUCCESS && response.isVerified()) {
+				successful.add(response);
+			}
+		}
+		if (successful.isEmpty()) {
+			return null;
+		}
+
+		Set<ProposalResponse> best = null;
+		for (Set<ProposalResponse> consistent : SDKUtils.getProposalConsistencySets(successful)) {
+			if (selector.isSatisfiedBy(consistent) && (best == null || consistent.size() > best.size())) {
+				best = consistent;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * One endorsement collection in progress.
+	 */
+	private final class PendingEndorsement {
+
+		final CompletableFuture<Collection<ProposalResponse>> result = new CompletableFuture<>();
+		private final TransactionProposalRequest request;
+		private final Executor executor;
+		private final Iterator<Collection<Peer>> remaining;
+		private int launched;
+		private int outstanding;
+		private String failure;
+
+		PendingEndorsement(TransactionProposalRequest request, Executor executor,
+				List<Collection<Peer>> peerSets) {
+			this.request = request;
+			this.executor = executor;
+			this.remaining = peerSets.iterator();
+		}
+
+		void launchNext() {
+			final Collection<Peer> peers;
+			final int sequence;
+			final boolean more;
+			synchronized (this) {
+				if (result.isDone() || !remaining.hasNext()) {
+					return;
+				}
+				peers = remaining.next();
+				sequence = ++launched;
+				more = remaining.hasNext();
+				outstanding++;
+			}
+			if (sequence > 1) {
+				logger.info("Hedging endorsement with " + peers.size() + " more peer(s)");
+			}
+
+			final long start = System.nanoTime();
+			FutureHelper.supplyAsync(() -> channel.sendTransactionProposal(request, peers), executor)
+					.whenComplete((responses, error) -> {
+						long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+						completed(peers, latency, responses, error);
+					});
+
+			if (more) {
+				FutureHelper.delay(hedgeDelay).thenRun(() -> {
+					if (isLatest(sequence)) {
+						launchNext();
+					}
+				});
+			}
+		}
+
+		private synchronized boolean isLatest(int sequence) {
+			return launched == sequence;
+		}
+
+		void completed(Collection<Peer> peers, long latency, Collection<ProposalResponse> responses,
+				Throwable error) {
+			Collection<ProposalResponse> endorsement = null;
+			if (error == null) {
+				try {
+					endorsement = satisfying(responses);
+				} catch (InvalidArgumentException e) {
+					error = e;
+				}
+			}
+			// A set failing fast must not look like the cheapest one
+			selector.record(peers, endorsement != null ? latency : Math.max(latency, hedgeDelay));
+
+			boolean next = false;
+			synchronized (this) {
+				outstanding--;
+				if (result.isDone()) {
+					return; // a straggler, the transaction already moved on
+				}
+				if (endorsement != null) {
+					result.complete(endorsement);
+					return;
+				}
+				if (failure == null) {
+					failure = error != null ? error.getMessage() : describe(responses);
+				}
+				if (remaining.hasNext()) {
+					next = true;
+				} else if (outstanding == 0) {
+					result.completeExceptionally(
+							new ProposalException("No endorsement satisfying the endorsement policy: " + failure));
+				}
+			}
+			if (next) {
+				launchNext();
+			}
+		}
+
+		private String describe(Collection<ProposalResponse> responses) {
+			for (ProposalResponse response : responses) {
+				if (response.getStatus() != ProposalResponse.Status.SUCCESS || !response.isVerified()) {
+					return "endorser error: " + response.getMessage() + ". Was verified: " + response.isVerified();
+				}
+			}
+			return "inconsistent proposal responses";
+		}
+	}
+
+}
@@ -0,0 +1,130 @@
+package com.cs.fabric.client.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hyperledger.fabric.sdk.Channel;
+import org.hyperledger.fabric.sdk.Peer;
+import org.hyperledger.fabric.sdk.ProposalResponse;
+
+/**
+ * Picks the peers a transaction proposal is sent to: the cheapest set of
+ * channel peers that satisfies the endorsement policy, cheapest meaning the
+ * lowest observed latency. Without a policy every channel peer is used.
+ */
+public class EndorsementPeerSelector {
+
+	private static final Log logger = LogFactory.getLog(EndorsementPeerSelector.class);
+
+	private final Channel channel;
+	private final EndorsementPolicy policy;
+	private final Map<String, String> peerMspIds;
+	private final LatencyTracker latencies;
+
+	/**
+	 * @param channel
+	 * @param policy
+	 *            endorsement policy of the chaincode, null to use all peers
+	 * @param peerMspIds
+	 *            MSP id by peer name
+	 * @param latencies
+	 *            observed peer latencies
+	 */
+	public EndorsementPeerSelector(Channel channel, EndorsementPolicy policy, Map<String, String> peerMspIds,
+			LatencyTracker latencies) {
+		this.channel = channel;
+		this.policy = policy;
+		this.peerMspIds = peerMspIds;
+		this.latencies = latencies;
+	}
+
+	/**
+	 * @return peers to send the next proposal to
+	 */
+	public Collection<Peer> select() {
+		Collection<Peer> peers = channel.getPeers();
+		if (policy == null) {
+			return peers;
+		}
+		List<Peer> selected = policy.cheapest(peers, this::getMspId, peer -> latencies.estimate(peer.getName()));
+		if (selected == null) {
+			logger.warn("Channel peers can not satisfy the endorsement policy, sending proposal to all peers");
+			return peers;
+		}
+		return selected;
+	}
+
+	/**
+	 * Split the channel peers into disjoint sets, each satisfying the
+	 * endorsement policy on its own, cheapest set first. Without a policy
+	 * there is one set holding every peer.
+	 *
+	 * @return peer sets, never empty
+	 */
+	public List<Collection<Peer>> selectDisjoint() {
+		List<Collection<Peer>> peerSets = new ArrayList<>();
+		if (policy != null) {
+			List<Peer> remaining = new ArrayList<>(channel.getPeers());
+			List<Peer> selected;
+			while ((selected = policy.cheapest(remaining, this::getMspId,
+					peer -> latencies.estimate(peer.getName()))) != null) {
+				if (selected.isEmpty()) {
+					break;
+				}
+				peerSets.add(selected);
+				remaining.removeAll(selected);
+			}
+		}
+		if (peerSets.isEmpty()) {
+			peerSets.add(select());
+		}
+		return peerSets;
+	}
+
+	/**
+	 * @param responses
+	 * @return true if the endorsing peers of the responses satisfy the
+	 *         endorsement policy, or there is no policy and at least one
+	 *         response
+	 */
+	public boolean isSatisfiedBy(Collection<ProposalResponse> responses) {
+		if (policy == null) {
+			return !responses.isEmpty();
+		}
+		List<String> mspIds = new ArrayList<>();
+		for (ProposalResponse response : responses) {
+			mspIds.add(getMspId(response.getPeer()));
+		}
+		return policy.isSatisfiedBy(mspIds);
+	}
+
+	/**
+	 * Record the round trip of a proposal sent to the given peers.
+	 *
+	 * @param peers
+	 * @param latency
+	 *            latency in milliseconds
+	 */
+	public void record(Collection<Peer> peers, long latency) {
+		for (Peer peer : peers) {
+			latencies.record(peer.getName(), latency);
+		}
+	}
+
+	public String getMspId(Peer peer) {
+		return peerMspIds.get(peer.getName());
+	}
+
+	public EndorsementPolicy getPolicy() {
+		return policy;
+	}
+
+	public LatencyTracker getLatencies() {
+		return latencies;
+	}
+
+}
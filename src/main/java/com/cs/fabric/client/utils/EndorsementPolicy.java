@@ -0,0 +1,237 @@
+package com.cs.fabric.client.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+import org.hyperledger.fabric.protos.common.MspPrincipal.MSPPrincipal;
+import org.hyperledger.fabric.protos.common.MspPrincipal.MSPRole;
+import org.hyperledger.fabric.protos.common.Policies.SignaturePolicy;
+import org.hyperledger.fabric.protos.common.Policies.SignaturePolicyEnvelope;
+import org.hyperledger.fabric.sdk.ChaincodeEndorsementPolicy;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * Evaluable form of a chaincode endorsement policy.
+ *
+ * Endorsing peers sign as members of their MSP, so only MEMBER role
+ * principals can be satisfied by a peer. Evaluation follows the peer's own
+ * rules: each endorser counts for at most one principal.
+ */
+public class EndorsementPolicy {
+
+	private final Rule rule;
+
+	private EndorsementPolicy(Rule rule) {
+		this.rule = rule;
+	}
+
+	/**
+	 * Parse a policy loaded with
+	 * {@link ChaincodeEndorsementPolicy#fromYamlFile(java.io.File)}.
+	 *
+	 * @param policy
+	 * @return evaluable policy
+	 * @throws InvalidProtocolBufferException
+	 */
+	public static EndorsementPolicy fromChaincodeEndorsementPolicy(ChaincodeEndorsementPolicy policy)
+			throws InvalidProtocolBufferException {
+
+		SignaturePolicyEnvelope envelope = SignaturePolicyEnvelope
+				.parseFrom(policy.getChaincodeEndorsementPolicyAsBytes());
+
+		List<String> memberOf = new ArrayList<>();
+		for (MSPPrincipal principal : envelope.getIdentitiesList()) {
+			String mspId = null;
+			if (principal.getPrincipalClassification() == MSPPrincipal.Classification.ROLE) {
+				MSPRole role = MSPRole.parseFrom(principal.getPrincipal());
+				if (role.getRole() == MSPRole.MSPRoleType.MEMBER) {
+					mspId = role.getMspIdentifier();
+				}
+			}
+			memberOf.add(mspId); // null can not be satisfied by a peer
+		}
+
+		return new EndorsementPolicy(toRule(envelope.getRule(), memberOf));
+	}
+
+	private static Rule toRule(SignaturePolicy policy, List<String> memberOf) {
+		switch (policy.getTypeCase()) {
+		case SIGNED_BY:
+			int index = policy.getSignedBy();
+			return new SignedBy(index < memberOf.size() ? memberOf.get(index) : null);
+		case N_OUT_OF:
+			List<Rule> rules = new ArrayList<>();
+			for (SignaturePolicy child : policy.getNOutOf().getRulesList()) {
+				rules.add(toRule(child, memberOf));
+			}
+			return new NOutOf(policy.getNOutOf().getN(), rules);
+		default:
+			return new SignedBy(null);
+		}
+	}
+
+	/**
+	 * @param endorserMspIds
+	 *            MSP ids of the endorsers, one entry per endorser
+	 * @return true if endorsements from these endorsers satisfy the policy
+	 */
+	public boolean isSatisfiedBy(List<String> endorserMspIds) {
+		return rule.evaluate(endorserMspIds, new boolean[endorserMspIds.size()]);
+	}
+
+	/**
+	 * Pick the cheapest set of candidates whose endorsements satisfy the
+	 * policy.
+	 *
+	 * @param candidates
+	 * @param mspId
+	 *            MSP id of a candidate
+	 * @param cost
+	 *            cost of a candidate, e.g. its expected latency
+	 * @return satisfying candidates, null if all of them together can not
+	 *         satisfy the policy
+	 */
+	public <T> List<T> cheapest(Collection<T> candidates, Function<T, String> mspId, ToDoubleFunction<T> cost) {
+
+		List<T> sorted = new ArrayList<>(candidates);
+		sorted.sort(Comparator.comparingDouble(cost));
+		List<String> mspIds = new ArrayList<>();
+		double[] costs = new double[sorted.size()];
+		for (int i = 0; i < costs.length; i++) {
+			mspIds.add(mspId.apply(sorted.get(i)));
+			costs[i] = cost.applyAsDouble(sorted.get(i));
+		}
+
+		Selection selection = rule.select(mspIds, costs);
+		TreeSet<Integer> chosen = selection == null ? new TreeSet<>() : selection.indexes;
+
+		// Principals sharing an MSP may have picked the same peer. Add the
+		// next cheapest peers until the set satisfies the policy.
+		for (int i = 0; !satisfied(mspIds, chosen); i++) {
+			if (i == sorted.size()) {
+				return null;
+			}
+			chosen.add(i);
+		}
+
+		List<T> result = new ArrayList<>();
+		for (int i : chosen) {
+			result.add(sorted.get(i));
+		}
+		return result;
+	}
+
+	private boolean satisfied(List<String> mspIds, TreeSet<Integer> chosen) {
+		List<String> endorsers = new ArrayList<>();
+		for (int i : chosen) {
+			endorsers.add(mspIds.get(i));
+		}
+		return isSatisfiedBy(endorsers);
+	}
+
+	/**
+	 * Candidate indexes picked for a rule, candidates sorted by cost.
+	 */
+	private static final class Selection {
+
+		final TreeSet<Integer> indexes = new TreeSet<>();
+		double cost;
+
+		void add(int index, double[] costs) {
+			if (indexes.add(index)) {
+				cost += costs[index];
+			}
+		}
+	}
+
+	private interface Rule {
+
+		boolean evaluate(List<String> endorsers, boolean[] used);
+
+		Selection select(List<String> candidates, double[] costs);
+	}
+
+	private static final class SignedBy implements Rule {
+
+		private final String mspId;
+
+		SignedBy(String mspId) {
+			this.mspId = mspId;
+		}
+
+		@Override
+		public boolean evaluate(List<String> endorsers, boolean[] used) {
+			for (int i = 0; i < endorsers.size(); i++) {
+				if (!used[i] && mspId != null && mspId.equals(endorsers.get(i))) {
+					used[i] = true;
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public Selection select(List<String> candidates, double[] costs) {
+			int index = mspId == null ? -1 : candidates.indexOf(mspId);
+			if (index < 0) {
+				return null;
+			}
+			Selection selection = new Selection();
+			selection.add(index, costs);
+			return selection;
+		}
+	}
+
+	private static final class NOutOf implements Rule {
+
+		private final int n;
+		private final List<Rule> rules;
+
+		NOutOf(int n, List<Rule> rules) {
+			this.n = n;
+			this.rules = rules;
+		}
+
+		@Override
+		public boolean evaluate(List<String> endorsers, boolean[] used) {
+			int verified = 0;
+			for (Rule rule : rules) {
+				boolean[] tmp = used.clone();
+				if (rule.evaluate(endorsers, tmp)) {
+					verified++;
+					System.arraycopy(tmp, 0, used, 0, used.length);
+				}
+			}
+			return verified >= n;
+		}
+
+		@Override
+		public Selection select(List<String> candidates, double[] costs) {
+			List<Selection> selections = new ArrayList<>();
+			for (Rule rule : rules) {
+				Selection selection = rule.select(candidates, costs);
+				if (selection != null) {
+					selections.add(selection);
+				}
+			}
+			if (selections.size() < n) {
+				return null;
+			}
+			selections.sort(Comparator.comparingDouble(selection -> selection.cost));
+			Selection result = new Selection();
+			for (Selection selection : selections.subList(0, n)) {
+				for (int index : selection.indexes) {
+					result.add(index, costs);
+				}
+			}
+			return result;
+		}
+	}
+
+}
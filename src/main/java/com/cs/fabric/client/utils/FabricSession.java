@@ -0,0 +1,207 @@
+package com.cs.fabric.client.utils;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hyperledger.fabric.sdk.ChaincodeID;
+import org.hyperledger.fabric.sdk.Channel;
+import org.hyperledger.fabric.sdk.HFClient;
+import org.hyperledger.fabric.sdk.exception.ChaincodeEndorsementPolicyParseException;
+import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
+
+import com.cs.fabric.sdk.utils.ClientConfig;
+import com.cs.fabric.sdkintegration.SampleOrg;
+
+/**
+ * Client, identities and initialized channel of one org, built once and
+ * shared by every caller. Obtain sessions from {@link SessionRegistry}.
+ *
+ * The session also owns the components that must exist once per channel:
+ * the commit tracker registered as the channel's block listener, the
+ * observed peer latencies and the balancer of the orderers.
+ *
+ * Sessions obtained with {@link SessionRegistry#acquire()} are reference
+ * counted, so that their connections stay open while anyone uses them and
+ * are closed once nobody has for a while.
+ */
+public class FabricSession {
+
+	private static final Log logger = LogFactory.getLog(FabricSession.class);
+	private static final long PEER_LATENCY_STALE_AFTER = 60000;
+
+	private final String name;
+	private final HFClient client;
+	private final SampleOrg sampleOrg;
+	private final Channel channel;
+	private final ChaincodeID chaincodeID;
+	private final EndorsementPolicy endorsementPolicy;
+	private final Map<String, String> peerMspIds;
+	private final LatencyTracker peerLatencies = new LatencyTracker(PEER_LATENCY_STALE_AFTER);
+	private final CommitTracker commitTracker = new CommitTracker();
+	private final OrdererBalancer ordererBalancer;
+	private final String commitTrackerHandle;
+	private final ConcurrentMap<String, Object> shared = new ConcurrentHashMap<>();
+	private volatile boolean shutdown;
+	private int references;
+	private boolean pinned;
+	private boolean retired;
+
+	FabricSession(String name, ClientHelper clientHelper, HFClient client, SampleOrg sampleOrg, Channel channel)
+			throws InvalidArgumentException {
+		this.name = name;
+		this.client = client;
+		this.sampleOrg = sampleOrg;
+		this.channel = channel;
+		this.chaincodeID = clientHelper.getChaincodeID();
+		this.peerMspIds = Collections.unmodifiableMap(clientHelper.getPeerMspIds());
+
+		EndorsementPolicy policy = null;
+		try {
+			policy = EndorsementPolicy.fromChaincodeEndorsementPolicy(clientHelper.getChaincodeEndorsementPolicy());
+		} catch (ChaincodeEndorsementPolicyParseException | IOException e) {
+			logger.warn("Could not load endorsement policy, sending proposals to all peers: " + e.getMessage());
+		}
+		this.endorsementPolicy = policy;
+
+		ClientConfig clientConfig = ClientConfig.getConfig();
+		this.ordererBalancer = new OrdererBalancer(channel.getOrderers(), clientConfig.getOrdererEjectAfter(),
+				clientConfig.getOrdererEjectTime());
+
+		this.commitTrackerHandle = channel.registerBlockListener(commitTracker);
+	}
+
+	/**
+	 * Get a component shared by all users of this session, creating it on
+	 * first use.
+	 *
+	 * @param key
+	 *            name of the component
+	 * @param factory
+	 *            creates the component, called at most once per key
+	 * @return the component
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T getShared(String key, Supplier<T> factory) {
+		return (T) shared.computeIfAbsent(key, k -> factory.get());
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public HFClient getClient() {
+		return client;
+	}
+
+	public SampleOrg getSampleOrg() {
+		return sampleOrg;
+	}
+
+	public Channel getChannel() {
+		return channel;
+	}
+
+	public ChaincodeID getChaincodeID() {
+		return chaincodeID;
+	}
+
+	/**
+	 * @return endorsement policy of the chaincode, null if it could not be
+	 *         loaded
+	 */
+	public EndorsementPolicy getEndorsementPolicy() {
+		return endorsementPolicy;
+	}
+
+	/**
+	 * @return MSP id by peer name
+	 */
+	public Map<String, String> getPeerMspIds() {
+		return peerMspIds;
+	}
+
+	public LatencyTracker getPeerLatencies() {
+		return peerLatencies;
+	}
+
+	public CommitTracker getCommitTracker() {
+		return commitTracker;
+	}
+
+	public OrdererBalancer getOrdererBalancer() {
+		return ordererBalancer;
+	}
+
+	public boolean isShutdown() {
+		return shutdown;
+	}
+
+	synchronized void retain() {
+		references++;
+	}
+
+	/**
+	 * @return references left
+	 */
+	synchronized int release() {
+		if (references == 0) {
+			throw new IllegalStateException("Session " + name + " released more often than acquired");
+		}
+		return --references;
+	}
+
+	/**
+	 * Keep the session open until {@link SessionRegistry#shutdown()}, for
+	 * users that do not release it.
+	 */
+	synchronized void pin() {
+		pinned = true;
+	}
+
+	synchronized boolean isPinned() {
+		return pinned;
+	}
+
+	/**
+	 * Mark the session as replaced by a session for a new configuration.
+	 */
+	synchronized void retire() {
+		retired = true;
+	}
+
+	synchronized boolean isRetired() {
+		return retired;
+	}
+
+	/**
+	 * @return true if neither pinned nor referenced
+	 */
+	synchronized boolean isIdle() {
+		return !pinned && references == 0;
+	}
+
+	/**
+	 * Detach from the channel's events and shut the channel down.
+	 * Transactions still waiting for their commit fail at their deadline.
+	 */
+	synchronized void shutdown() {
+		if (shutdown) {
+			return;
+		}
+		shutdown = true;
+		try {
+			channel.unregisterBlockListener(commitTrackerHandle);
+		} catch (InvalidArgumentException e) {
+			logger.warn("Could not unregister commit tracker of session " + name + ": " + e.getMessage());
+		}
+		channel.shutdown(false);
+		logger.info("Shut down session " + name);
+	}
+
+}
@@ -0,0 +1,107 @@
+package com.cs.fabric.client.utils;
+
+import static java.lang.String.format;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Small helpers for composing the stages of a transaction life cycle.
+ *
+ * All timeouts share one daemon timer thread, so a pending stage costs a
+ * scheduled task instead of a parked thread.
+ */
+public final class FutureHelper {
+
+	private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "fabric-client-timer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private FutureHelper() {
+	}
+
+	/**
+	 * Run a task that may throw checked exceptions on the given executor.
+	 *
+	 * @param task
+	 * @param executor
+	 * @return future completed with the result of the task
+	 */
+	public static <T> CompletableFuture<T> supplyAsync(Callable<T> task, Executor executor) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		try {
+			executor.execute(() -> {
+				try {
+					future.complete(task.call());
+				} catch (Throwable e) {
+					future.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * @param delay
+	 *            delay in milliseconds
+	 * @return future completed after the delay, without holding a thread
+	 */
+	public static CompletableFuture<Void> delay(long delay) {
+		CompletableFuture<Void> result = new CompletableFuture<>();
+		timer.schedule(() -> result.complete(null), delay, TimeUnit.MILLISECONDS);
+		return result;
+	}
+
+	/**
+	 * Run a short task on the shared timer after a delay.
+	 *
+	 * @param task
+	 *            task, must not block
+	 * @param delay
+	 *            delay in milliseconds
+	 * @return handle to cancel the task
+	 */
+	public static ScheduledFuture<?> schedule(Runnable task, long delay) {
+		return timer.schedule(task, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Bound a stage by a timeout. The returned future fails with a
+	 * {@link TimeoutException} naming the phase if the stage does not complete
+	 * in time.
+	 *
+	 * @param future
+	 * @param timeout
+	 *            timeout in milliseconds
+	 * @param phase
+	 *            name of the phase, used in the timeout message
+	 * @return future completed with the outcome of the stage or the timeout
+	 */
+	public static <T> CompletableFuture<T> within(CompletableFuture<T> future, long timeout, String phase) {
+		CompletableFuture<T> result = new CompletableFuture<>();
+		ScheduledFuture<?> expiry = timer.schedule(() -> result.completeExceptionally(
+				new TimeoutException(format("%s phase timed out after %d ms", phase, timeout))), timeout,
+				TimeUnit.MILLISECONDS);
+		future.whenComplete((value, error) -> {
+			expiry.cancel(false);
+			if (error != null) {
+				result.completeExceptionally(error);
+			} else {
+				result.complete(value);
+			}
+		});
+		return result;
+	}
+
+}
@@ -0,0 +1,31 @@
+package com.cs.fabric.client.utils;
+
+import org.hyperledger.fabric.sdk.Enrollment;
+import org.hyperledger.fabric.sdk.User;
+import org.hyperledger.fabric_ca.sdk.HFCAClient;
+import org.hyperledger.fabric_ca.sdk.RegistrationRequest;
+
+/**
+ * {@link CertificateAuthority} backed by a Fabric CA.
+ */
+public class HFCACertificateAuthority implements CertificateAuthority {
+
+	private final HFCAClient ca;
+
+	public HFCACertificateAuthority(HFCAClient ca) {
+		this.ca = ca;
+	}
+
+	@Override
+	public String register(String name, String affiliation, String secret, User registrar) throws Exception {
+		RegistrationRequest rr = new RegistrationRequest(name, affiliation);
+		rr.setSecret(secret);
+		return ca.register(rr, registrar);
+	}
+
+	@Override
+	public Enrollment enroll(String name, String secret) throws Exception {
+		return ca.enroll(name, secret);
+	}
+
+}
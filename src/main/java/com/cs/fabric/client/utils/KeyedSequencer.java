@@ -0,0 +1,65 @@
+package com.cs.fabric.client.utils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Runs asynchronous tasks one after the other per key, while tasks for
+ * different keys run in parallel.
+ *
+ * A task for a key is started only after the future of the previous task for
+ * the same key has completed, successfully or not. Keys without pending tasks
+ * take no memory.
+ */
+public class KeyedSequencer {
+
+	private final ConcurrentMap<String, CompletableFuture<?>> tails = new ConcurrentHashMap<>();
+
+	/**
+	 * Queue a task behind the pending tasks for the same key.
+	 *
+	 * @param key
+	 * @param task
+	 *            starts the asynchronous work and returns its future
+	 * @return future completed with the outcome of the task
+	 */
+	public <T> CompletableFuture<T> submit(String key, Supplier<CompletableFuture<T>> task) {
+		final CompletableFuture<T> result = new CompletableFuture<>();
+		final CompletableFuture<?> previous = tails.put(key, result);
+
+		Runnable start = () -> {
+			CompletableFuture<T> future;
+			try {
+				future = task.get();
+			} catch (Throwable e) {
+				future = new CompletableFuture<>();
+				future.completeExceptionally(e);
+			}
+			future.whenComplete((value, error) -> {
+				if (error != null) {
+					result.completeExceptionally(error);
+				} else {
+					result.complete(value);
+				}
+				tails.remove(key, result);
+			});
+		};
+
+		if (previous == null) {
+			start.run();
+		} else {
+			previous.whenComplete((value, error) -> start.run());
+		}
+		return result;
+	}
+
+	/**
+	 * @return number of keys with pending tasks
+	 */
+	public int getPendingKeys() {
+		return tails.size();
+	}
+
+}
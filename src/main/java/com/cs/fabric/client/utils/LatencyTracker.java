@@ -0,0 +1,101 @@
+package com.cs.fabric.client.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exponentially weighted moving average of the latency observed per endpoint,
+ * plus a window of the most recent samples for percentiles.
+ *
+ * An estimate not refreshed for a while is forgotten, so an endpoint that was
+ * slow once gets probed again instead of being avoided forever.
+ */
+public class LatencyTracker {
+
+	private static final double ALPHA = 0.2;
+	private static final int SAMPLES = 64;
+
+	private final ConcurrentMap<String, Estimate> estimates = new ConcurrentHashMap<>();
+	private final long staleAfterNanos;
+
+	/**
+	 * @param staleAfter
+	 *            milliseconds after which an estimate is forgotten
+	 */
+	public LatencyTracker(long staleAfter) {
+		this.staleAfterNanos = TimeUnit.MILLISECONDS.toNanos(staleAfter);
+	}
+
+	/**
+	 * Record an observed latency.
+	 *
+	 * @param name
+	 *            endpoint name
+	 * @param latency
+	 *            latency in milliseconds
+	 */
+	public void record(String name, long latency) {
+		estimates.computeIfAbsent(name, n -> new Estimate()).update(latency, System.nanoTime());
+	}
+
+	/**
+	 * @param name
+	 *            endpoint name
+	 * @return estimated latency in milliseconds, 0 if unknown or stale
+	 */
+	public double estimate(String name) {
+		Estimate estimate = estimates.get(name);
+		return estimate == null ? 0 : estimate.get(System.nanoTime(), staleAfterNanos);
+	}
+
+	/**
+	 * @param name
+	 *            endpoint name
+	 * @param percentile
+	 *            percentile between 0 and 100
+	 * @return latency percentile in milliseconds over the recent samples, -1
+	 *         if unknown or stale
+	 */
+	public long percentile(String name, double percentile) {
+		Estimate estimate = estimates.get(name);
+		return estimate == null ? -1 : estimate.percentile(percentile, System.nanoTime(), staleAfterNanos);
+	}
+
+	private static final class Estimate {
+
+		private double average;
+		private long updated;
+		private boolean known;
+		private final long[] samples = new long[SAMPLES];
+		private int count;
+
+		synchronized void update(long latency, long now) {
+			average = known ? average + ALPHA * (latency - average) : latency;
+			updated = now;
+			known = true;
+			samples[count++ % SAMPLES] = latency;
+		}
+
+		synchronized long percentile(double percentile, long now, long staleAfter) {
+			if (!known || now - updated > staleAfter) {
+				return -1;
+			}
+			long[] sorted = Arrays.copyOf(samples, Math.min(count, SAMPLES));
+			Arrays.sort(sorted);
+			int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+			return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+		}
+
+		synchronized double get(long now, long staleAfter) {
+			if (!known || now - updated > staleAfter) {
+				known = false;
+				count = 0;
+				return 0;
+			}
+			return average;
+		}
+	}
+
+}
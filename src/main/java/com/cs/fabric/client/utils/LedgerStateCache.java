@@ -0,0 +1,188 @@
+package com.cs.fabric.client.utils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hyperledger.fabric.protos.ledger.rwset.kvrwset.KvRwset;
+import org.hyperledger.fabric.sdk.BlockEvent;
+import org.hyperledger.fabric.sdk.BlockInfo;
+import org.hyperledger.fabric.sdk.BlockListener;
+import org.hyperledger.fabric.sdk.TxReadWriteSetInfo;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * Size bounded cache of decoded chaincode state, kept fresh by the blocks the
+ * channel delivers. Register it as a block listener on the channel or a
+ * {@link CommitTracker}.
+ *
+ * Every key written by a transaction of the chaincode in a received block is
+ * evicted, whether or not the transaction was valid. A value is only cached
+ * if no block arrived while it was being read, so the cache never holds state
+ * older than the last block processed. It relies on the queried peers being
+ * at least as far as the peers delivering the blocks.
+ */
+public class LedgerStateCache<V> implements BlockListener {
+
+	private static final Log logger = LogFactory.getLog(LedgerStateCache.class);
+
+	private final String namespace;
+	private final Map<String, V> entries;
+	private long blocks;
+	private long lastBlockNumber = -1;
+	private long hits;
+	private long misses;
+
+	/**
+	 * @param namespace
+	 *            name of the chaincode whose state is cached
+	 * @param capacity
+	 *            maximum number of entries, least recently used are evicted
+	 *            first
+	 */
+	public LedgerStateCache(String namespace, final int capacity) {
+		this.namespace = namespace;
+		this.entries = new LinkedHashMap<String, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * @param key
+	 * @return cached value, null if not cached
+	 */
+	public synchronized V get(String key) {
+		V value = entries.get(key);
+		if (value == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return value;
+	}
+
+	/**
+	 * Take a mark before reading a value from the ledger.
+	 *
+	 * @return mark to pass to {@link #put(String, Object, long)}
+	 */
+	public synchronized long mark() {
+		return blocks;
+	}
+
+	/**
+	 * Cache a value read from the ledger, unless a block was processed since
+	 * the read started.
+	 *
+	 * @param key
+	 * @param value
+	 * @param mark
+	 *            mark taken before the read
+	 * @return true if the value was cached
+	 */
+	public synchronized boolean put(String key, V value, long mark) {
+		if (mark != blocks) {
+			return false;
+		}
+		entries.put(key, value);
+		return true;
+	}
+
+	/**
+	 * Update a value that is already cached, unless a block was processed
+	 * since the read started. Bulk reads use this, so that they refresh hot
+	 * entries without evicting them.
+	 *
+	 * @param key
+	 * @param value
+	 * @param mark
+	 *            mark taken before the read
+	 * @return true if the value was updated
+	 */
+	public synchronized boolean refresh(String key, V value, long mark) {
+		return mark == blocks && entries.replace(key, value) != null;
+	}
+
+	public synchronized void invalidate(String key) {
+		entries.remove(key);
+	}
+
+	@Override
+	public void received(BlockEvent blockEvent) {
+		// Decode the write sets before taking the lock, it is the expensive
+		// part.
+		List<String> written;
+		try {
+			written = writtenKeys(blockEvent);
+		} catch (InvalidProtocolBufferException e) {
+			logger.warn("Could not decode write sets of block " + blockEvent.getBlockNumber()
+					+ ", clearing state cache: " + e.getMessage());
+			written = null;
+		}
+
+		synchronized (this) {
+			blocks++;
+			lastBlockNumber = Math.max(lastBlockNumber, blockEvent.getBlockNumber());
+			if (written == null) {
+				entries.clear();
+			} else {
+				for (String key : written) {
+					entries.remove(key);
+				}
+			}
+		}
+	}
+
+	private List<String> writtenKeys(BlockInfo blockInfo) throws InvalidProtocolBufferException {
+		List<String> written = new ArrayList<>();
+		for (BlockInfo.EnvelopeInfo envelopeInfo : blockInfo.getEnvelopeInfos()) {
+			if (envelopeInfo.getType() != BlockInfo.EnvelopeType.TRANSACTION_ENVELOPE) {
+				continue;
+			}
+			BlockInfo.TransactionEnvelopeInfo transactionEnvelopeInfo = (BlockInfo.TransactionEnvelopeInfo) envelopeInfo;
+			for (BlockInfo.TransactionActionInfo actionInfo : transactionEnvelopeInfo.getTransactionActionInfos()) {
+				TxReadWriteSetInfo rwsetInfo = actionInfo.getTxReadWriteSet();
+				if (rwsetInfo == null) {
+					continue;
+				}
+				for (TxReadWriteSetInfo.NsRwsetInfo nsRwsetInfo : rwsetInfo.getNsRwsetInfos()) {
+					if (namespace.equals(nsRwsetInfo.getNamespace())) {
+						for (KvRwset.KVWrite write : nsRwsetInfo.getRwset().getWritesList()) {
+							written.add(write.getKey());
+						}
+					}
+				}
+			}
+		}
+		return written;
+	}
+
+	/**
+	 * @return number of the last block processed, -1 if none
+	 */
+	public synchronized long getLastBlockNumber() {
+		return lastBlockNumber;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+}
@@ -0,0 +1,170 @@
+package com.cs.fabric.client.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hyperledger.fabric.sdk.Orderer;
+
+/**
+ * Spreads transaction broadcasts over the orderers of a channel, sending each
+ * to the healthy orderer with the fewest broadcasts outstanding.
+ *
+ * An orderer that timed out or failed a number of times in a row is ejected
+ * for a while. Once that time is over, a single broadcast probes it: success
+ * takes it back, another failure ejects it again. If every orderer is
+ * ejected, the one whose ejection ends first is used anyway.
+ */
+public class OrdererBalancer {
+
+	private static final Log logger = LogFactory.getLog(OrdererBalancer.class);
+
+	private final Map<String, State> states = new LinkedHashMap<>();
+	private final int ejectAfter;
+	private final long ejectTimeNanos;
+	private long chosenCount;
+
+	/**
+	 * @param orderers
+	 *            orderers of the channel
+	 * @param ejectAfter
+	 *            number of consecutive failures after which an orderer is
+	 *            ejected
+	 * @param ejectTime
+	 *            milliseconds an orderer stays ejected before it is probed
+	 */
+	public OrdererBalancer(Collection<Orderer> orderers, int ejectAfter, long ejectTime) {
+		for (Orderer orderer : orderers) {
+			states.put(orderer.getName(), new State(orderer));
+		}
+		if (states.isEmpty()) {
+			throw new IllegalArgumentException("Channel has no orderers");
+		}
+		this.ejectAfter = Math.max(1, ejectAfter);
+		this.ejectTimeNanos = TimeUnit.MILLISECONDS.toNanos(ejectTime);
+	}
+
+	/**
+	 * @return number of orderers
+	 */
+	public int size() {
+		return states.size();
+	}
+
+	/**
+	 * Choose the orderer for the next broadcast and count it as outstanding
+	 * until {@link #release(Orderer, boolean)}.
+	 *
+	 * @param tried
+	 *            names of the orderers already tried for the transaction,
+	 *            the chosen one is added
+	 * @return chosen orderer, null if all were tried
+	 */
+	public synchronized Orderer acquire(Collection<String> tried) {
+		long now = System.nanoTime();
+		State chosen = null;
+		State fallback = null;
+		for (State state : states.values()) {
+			if (tried.contains(state.orderer.getName())) {
+				continue;
+			}
+			if (state.isEjected(now) || (state.failures >= ejectAfter && state.probing)) {
+				if (fallback == null || state.ejectedUntil - fallback.ejectedUntil < 0) {
+					fallback = state;
+				}
+			} else if (state.failures >= ejectAfter && !state.probing) {
+				// Ejection is over, probe it before anything else
+				chosen = state;
+				chosen.probing = true;
+				break;
+			} else if (state.failures < ejectAfter && (chosen == null || state.outstanding < chosen.outstanding
+					|| (state.outstanding == chosen.outstanding && state.lastChosen < chosen.lastChosen))) {
+				// Ties go to the least recently used
+				chosen = state;
+			}
+		}
+		if (chosen == null) {
+			chosen = fallback;
+		}
+		if (chosen == null) {
+			return null;
+		}
+		chosen.outstanding++;
+		chosen.lastChosen = ++chosenCount;
+		tried.add(chosen.orderer.getName());
+		return chosen.orderer;
+	}
+
+	/**
+	 * Record the outcome of a broadcast. Call once per
+	 * {@link #acquire(Collection)}.
+	 *
+	 * @param orderer
+	 * @param accepted
+	 *            true if the orderer accepted the transaction in time
+	 */
+	public synchronized void release(Orderer orderer, boolean accepted) {
+		State state = states.get(orderer.getName());
+		if (state == null) {
+			return;
+		}
+		state.outstanding--;
+		state.probing = false;
+		if (accepted) {
+			if (state.failures >= ejectAfter) {
+				logger.info("Orderer " + orderer.getName() + " is back");
+			}
+			state.failures = 0;
+			state.ejectedUntil = 0;
+			return;
+		}
+		state.failures++;
+		if (state.failures >= ejectAfter) {
+			if (state.failures == ejectAfter) {
+				logger.warn(String.format("Ejecting orderer %s after %d consecutive failures for %d ms",
+						orderer.getName(), state.failures, TimeUnit.NANOSECONDS.toMillis(ejectTimeNanos)));
+			} else {
+				logger.debug("Orderer " + orderer.getName() + " still failing, ejecting it again");
+			}
+			state.ejectedUntil = System.nanoTime() + ejectTimeNanos;
+		}
+	}
+
+	/**
+	 * @return names of the orderers currently ejected
+	 */
+	public synchronized List<String> getEjected() {
+		long now = System.nanoTime();
+		List<String> ejected = new ArrayList<>();
+		for (State state : states.values()) {
+			if (state.isEjected(now)) {
+				ejected.add(state.orderer.getName());
+			}
+		}
+		return ejected;
+	}
+
+	private static final class State {
+
+		private final Orderer orderer;
+		private int outstanding;
+		private long lastChosen;
+		private int failures;
+		private long ejectedUntil;
+		private boolean probing;
+
+		State(Orderer orderer) {
+			this.orderer = orderer;
+		}
+
+		boolean isEjected(long now) {
+			return ejectedUntil != 0 && now - ejectedUntil < 0;
+		}
+	}
+
+}
@@ -0,0 +1,171 @@
+package com.cs.fabric.client.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hyperledger.fabric.sdk.Channel;
+import org.hyperledger.fabric.sdk.Peer;
+import org.hyperledger.fabric.sdk.ProposalResponse;
+import org.hyperledger.fabric.sdk.QueryByChaincodeRequest;
+import org.hyperledger.fabric.sdk.exception.ProposalException;
+
+/**
+ * Sends a query to the single channel peer with the lowest observed latency.
+ *
+ * If that peer has not answered once the configured percentile of its recent
+ * latencies has passed, or fails, the same query is sent to the next fastest
+ * peer and the first successful answer wins. A read therefore costs one
+ * simulation, and two only when the first peer is slower than usual.
+ */
+public class QueryRouter {
+
+	private static final Log logger = LogFactory.getLog(QueryRouter.class);
+
+	private final Channel channel;
+	private final LatencyTracker latencies;
+	private final double hedgePercentile;
+	private final long defaultHedgeDelay;
+
+	/**
+	 * @param channel
+	 * @param latencies
+	 *            observed peer latencies
+	 * @param hedgePercentile
+	 *            latency percentile of the first peer after which the query is
+	 *            hedged, between 0 and 100
+	 * @param defaultHedgeDelay
+	 *            milliseconds to wait before hedging while the first peer has
+	 *            no latency samples
+	 */
+	public QueryRouter(Channel channel, LatencyTracker latencies, double hedgePercentile, long defaultHedgeDelay) {
+		this.channel = channel;
+		this.latencies = latencies;
+		this.hedgePercentile = hedgePercentile;
+		this.defaultHedgeDelay = defaultHedgeDelay;
+	}
+
+	/**
+	 * @param request
+	 * @param executor
+	 *            executor running the blocking query calls
+	 * @return future completed with the first successful, verified response
+	 */
+	public CompletableFuture<ProposalResponse> query(QueryByChaincodeRequest request, Executor executor) {
+		List<Peer> peers = new ArrayList<>(channel.getPeers());
+		if (peers.isEmpty()) {
+			CompletableFuture<ProposalResponse> failed = new CompletableFuture<>();
+			failed.completeExceptionally(new ProposalException("Channel has no peers to query"));
+			return failed;
+		}
+		peers.sort(Comparator.comparingDouble(peer -> latencies.estimate(peer.getName())));
+
+		PendingQuery pending = new PendingQuery(request, executor, peers);
+		Peer first = pending.launchNext();
+		if (peers.size() > 1) {
+			long percentile = latencies.percentile(first.getName(), hedgePercentile);
+			FutureHelper.delay(percentile < 0 ? defaultHedgeDelay : percentile).thenRun(() -> {
+				if (pending.launched == 1) {
+					pending.launchNext();
+				}
+			});
+		}
+		return pending.result;
+	}
+
+	/**
+	 * One query in progress. At most two peers are asked.
+	 */
+	private final class PendingQuery {
+
+		final CompletableFuture<ProposalResponse> result = new CompletableFuture<>();
+		private final QueryByChaincodeRequest request;
+		private final Executor executor;
+		private final List<Peer> peers;
+		private volatile int launched;
+		private int outstanding;
+		private String failure;
+
+		PendingQuery(QueryByChaincodeRequest request, Executor executor, List<Peer> peers) {
+			this.request = request;
+			this.executor = executor;
+			this.peers = peers;
+		}
+
+		Peer launchNext() {
+			final Peer peer;
+			final int sequence;
+			synchronized (this) {
+				if (result.isDone() || launched == Math.min(2, peers.size())) {
+					return null;
+				}
+				peer = peers.get(launched);
+				sequence = ++launched;
+				outstanding++;
+			}
+			if (sequence > 1) {
+				logger.info("Hedging query with peer " + peer.getName());
+			}
+
+			final long start = System.nanoTime();
+			FutureHelper.supplyAsync(() -> channel.queryByChaincode(request, Collections.singleton(peer)), executor)
+					.whenComplete((responses, error) -> {
+						long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+						completed(peer, latency, responses, error);
+					});
+			return peer;
+		}
+
+		void completed(Peer peer, long latency, Collection<ProposalResponse> responses, Throwable error) {
+			ProposalResponse answer = null;
+			String reason = null;
+			if (error == null) {
+				for (ProposalResponse response : responses) {
+					if (response.getStatus() == ProposalResponse.Status.SUCCESS && response.isVerified()) {
+						answer = response;
+					} else {
+						reason = "peer " + peer.getName() + " status: " + response.getStatus() + ". Messages: "
+								+ response.getMessage() + ". Was verified : " + response.isVerified();
+					}
+				}
+			} else {
+				reason = "peer " + peer.getName() + ": " + error.getMessage();
+			}
+
+			// A failing peer often fails fast; do not let that make it look
+			// like the fastest one.
+			latencies.record(peer.getName(), answer != null ? latency : Math.max(latency, defaultHedgeDelay));
+
+			boolean next = false;
+			synchronized (this) {
+				outstanding--;
+				if (result.isDone()) {
+					return;
+				}
+				if (answer != null) {
+					result.complete(answer);
+					return;
+				}
+				if (failure == null) {
+					failure = reason;
+				}
+				if (launched < Math.min(2, peers.size())) {
+					next = true;
+				} else if (outstanding == 0) {
+					result.completeExceptionally(new ProposalException("Failed query proposal from " + failure));
+				}
+			}
+			if (next) {
+				launchNext();
+			}
+		}
+	}
+
+}
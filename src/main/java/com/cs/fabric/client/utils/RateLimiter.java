@@ -0,0 +1,43 @@
+package com.cs.fabric.client.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spaces out calls evenly to at most a given number per second, shared by any
+ * number of threads.
+ */
+public class RateLimiter {
+
+	private final long intervalNanos;
+	private long next = System.nanoTime();
+
+	/**
+	 * @param permitsPerSecond
+	 *            maximum rate, 0 or less for no limit
+	 */
+	public RateLimiter(double permitsPerSecond) {
+		this.intervalNanos = permitsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond) : 0;
+	}
+
+	/**
+	 * Wait until the next call is allowed.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void acquire() throws InterruptedException {
+		if (intervalNanos == 0) {
+			return;
+		}
+		long wait;
+		synchronized (this) {
+			long now = System.nanoTime();
+			long slot = Math.max(next, now);
+			next = slot + intervalNanos;
+			wait = slot - now;
+		}
+		if (wait > 0) {
+			TimeUnit.NANOSECONDS.sleep(wait);
+		}
+	}
+
+}
@@ -0,0 +1,58 @@
+package com.cs.fabric.client.utils;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Bounded exponential backoff with full jitter: the delay before retry
+ * <i>n</i> is drawn uniformly from [0, min(maxDelay, baseDelay * 2^(n-1))].
+ * Jitter keeps clients that collided on the same key from colliding again on
+ * the retry.
+ */
+public class RetryPolicy {
+
+	private final int maxAttempts;
+	private final long baseDelay;
+	private final long maxDelay;
+
+	/**
+	 * @param maxAttempts
+	 *            total number of attempts, including the first one
+	 * @param baseDelay
+	 *            upper bound of the first delay in milliseconds
+	 * @param maxDelay
+	 *            upper bound of any delay in milliseconds
+	 */
+	public RetryPolicy(int maxAttempts, long baseDelay, long maxDelay) {
+		if (maxAttempts < 1) {
+			throw new IllegalArgumentException("Expecting at least 1 attempt but got " + maxAttempts);
+		}
+		this.maxAttempts = maxAttempts;
+		this.baseDelay = baseDelay;
+		this.maxDelay = maxDelay;
+	}
+
+	/**
+	 * @param attempt
+	 *            number of the attempt that just failed, starting at 1
+	 * @return true if another attempt is allowed
+	 */
+	public boolean canRetry(int attempt) {
+		return attempt < maxAttempts;
+	}
+
+	/**
+	 * @param attempt
+	 *            number of the attempt that just failed, starting at 1
+	 * @return delay in milliseconds before the next attempt
+	 */
+	public long delay(int attempt) {
+		int shift = Math.min(attempt - 1, 30);
+		long ceiling = Math.min(maxDelay, baseDelay << shift);
+		return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+}
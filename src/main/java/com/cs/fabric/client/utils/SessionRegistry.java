@@ -0,0 +1,214 @@
+package com.cs.fabric.client.utils;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hyperledger.fabric.sdk.Channel;
+import org.hyperledger.fabric.sdk.HFClient;
+import org.hyperledger.fabric.sdk.exception.CryptoException;
+import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
+import org.hyperledger.fabric.sdk.exception.TransactionException;
+
+import com.cs.fabric.sdk.utils.ClientConfig;
+import com.cs.fabric.sdkintegration.SampleOrg;
+
+/**
+ * Process wide registry of {@link FabricSession}s.
+ *
+ * The first caller builds the session, reading the sample store, parsing the
+ * keys and initializing the channel. Later callers get the same session
+ * without any I/O.
+ *
+ * Sessions are either pinned, when obtained with {@link #getSession()}, or
+ * reference counted with {@link #acquire()} and {@link #release(FabricSession)}.
+ * A session nobody references any more is kept for a minute, so that a
+ * client starting again soon finds its connections open, and is then shut
+ * down.
+ *
+ * When the configured peer, orderer or event hub locations of a session's
+ * org change, the session is rebuilt in the background and replaces the old
+ * one for later callers, pinned if the old one was. Users of the old session
+ * keep it until they release it, it is shut down with its last reference. A
+ * pinned old session stays open until {@link #shutdown()}.
+ */
+public final class SessionRegistry {
+
+	private static final String DEFAULT_SESSION = "peerOrg1";
+	private static final long IDLE_SESSION_TIMEOUT = 60000;
+
+	private static final ClientHelper clientHelper = new ClientHelper();
+	private static final Log logger = LogFactory.getLog(SessionRegistry.class);
+	private static final ConcurrentMap<String, FabricSession> sessions = new ConcurrentHashMap<>();
+	// Replaced sessions still in use, guarded by lock
+	private static final Set<FabricSession> retiredSessions = new HashSet<>();
+	private static final Object lock = new Object();
+
+	static {
+		ClientConfig.addListener(SessionRegistry::configChanged);
+	}
+
+	private SessionRegistry() {
+	}
+
+	/**
+	 * Get the session pinned, it stays open until {@link #shutdown()}.
+	 *
+	 * @return the session of peerOrg1's peer admin on the foo channel
+	 */
+	public static FabricSession getSession() throws CryptoException, InvalidArgumentException,
+			NoSuchAlgorithmException, NoSuchProviderException, InvalidKeySpecException, TransactionException,
+			IOException, IllegalAccessException, InstantiationException, ClassNotFoundException,
+			NoSuchMethodException, InvocationTargetException {
+
+		// Pin under the lock, so that an idle session is not shut down
+		// between the lookup and the pin
+		synchronized (lock) {
+			FabricSession session = open(DEFAULT_SESSION);
+			session.pin();
+			return session;
+		}
+	}
+
+	/**
+	 * Get the session and count a reference to it. Every call must be
+	 * matched by a call of {@link #release(FabricSession)}.
+	 *
+	 * @return the session of peerOrg1's peer admin on the foo channel
+	 */
+	public static FabricSession acquire() throws CryptoException, InvalidArgumentException,
+			NoSuchAlgorithmException, NoSuchProviderException, InvalidKeySpecException, TransactionException,
+			IOException, IllegalAccessException, InstantiationException, ClassNotFoundException,
+			NoSuchMethodException, InvocationTargetException {
+
+		synchronized (lock) {
+			FabricSession session = open(DEFAULT_SESSION);
+			session.retain();
+			return session;
+		}
+	}
+
+	/**
+	 * Drop a reference obtained with {@link #acquire()}. The session is shut
+	 * down if it stays unreferenced for a minute, or right away if it was
+	 * replaced after a configuration change.
+	 *
+	 * @param session
+	 */
+	public static void release(FabricSession session) {
+		if (session.release() == 0) {
+			if (session.isRetired()) {
+				closeIfRetired(session);
+			} else {
+				FutureHelper.schedule(() -> closeIfIdle(session), IDLE_SESSION_TIMEOUT);
+			}
+		}
+	}
+
+	private static FabricSession open(String name) throws CryptoException, InvalidArgumentException,
+			NoSuchAlgorithmException, NoSuchProviderException, InvalidKeySpecException, TransactionException,
+			IOException, IllegalAccessException, InstantiationException, ClassNotFoundException,
+			NoSuchMethodException, InvocationTargetException {
+
+		FabricSession session = sessions.get(name);
+		if (session == null) {
+			session = build(name);
+			sessions.put(name, session);
+		}
+		return session;
+	}
+
+	private static void closeIfIdle(FabricSession session) {
+		synchronized (lock) {
+			if (!session.isIdle() || !sessions.remove(session.getName(), session)) {
+				return;
+			}
+		}
+		logger.info("Closing idle session " + session.getName());
+		session.shutdown();
+	}
+
+	private static void closeIfRetired(FabricSession session) {
+		synchronized (lock) {
+			if (!session.isIdle() || !retiredSessions.remove(session)) {
+				return;
+			}
+		}
+		logger.info("Closing replaced session " + session.getName());
+		session.shutdown();
+	}
+
+	private static FabricSession build(String name) throws CryptoException, InvalidArgumentException,
+			NoSuchAlgorithmException, NoSuchProviderException, InvalidKeySpecException, TransactionException,
+			IOException, IllegalAccessException, InstantiationException, ClassNotFoundException,
+			NoSuchMethodException, InvocationTargetException {
+
+		logger.info("Building session " + name);
+		SampleOrg sampleOrg = clientHelper.getSamleOrg();
+		HFClient client = clientHelper.getHFClient();
+		client.setUserContext(sampleOrg.getPeerAdmin()); // Maybe a bug of 1.0.0beta, only peer admin can call chaincode?
+		Channel channel = clientHelper.getChannel(sampleOrg, client);
+		return new FabricSession(name, clientHelper, client, sampleOrg, channel);
+	}
+
+	private static void configChanged(ClientConfig previous, ClientConfig current) {
+		for (String name : sessions.keySet()) {
+			if (current.hasSameEndpoints(previous, name)) {
+				continue;
+			}
+			FabricSession rebuilt;
+			try {
+				rebuilt = build(name);
+			} catch (Exception e) {
+				logger.warn("Keeping session " + name + ", could not rebuild it for the new configuration: "
+						+ e.getMessage(), e);
+				continue;
+			}
+			FabricSession retired;
+			synchronized (lock) {
+				retired = sessions.replace(name, rebuilt);
+				if (retired != null) {
+					if (retired.isPinned()) {
+						rebuilt.pin();
+					}
+					retired.retire();
+					retiredSessions.add(retired);
+				}
+			}
+			if (retired == null) {
+				rebuilt.shutdown(); // shut down meanwhile
+				continue;
+			}
+			logger.info("Rebuilt session " + name + " for the new configuration");
+			// Invokers of the old session keep using it until they close
+			closeIfRetired(retired);
+		}
+	}
+
+	/**
+	 * Shut every session down. Sessions requested afterwards are built again.
+	 */
+	public static void shutdown() {
+		List<FabricSession> closing;
+		synchronized (lock) {
+			closing = new ArrayList<>(sessions.values());
+			closing.addAll(retiredSessions);
+			sessions.clear();
+			retiredSessions.clear();
+		}
+		for (FabricSession session : closing) {
+			session.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,104 @@
+package com.cs.fabric.client.utils;
+
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.hyperledger.fabric.sdk.Enrollment;
+import org.hyperledger.fabric.sdk.User;
+
+/**
+ * In-process stand-in for a Fabric CA, to exercise onboarding without a
+ * network. It keeps registrations in memory and enrolls with a fresh P-256
+ * key and a placeholder certificate, which peers will not accept. An optional
+ * delay per call imitates the latency of a real CA, and a share of the
+ * enrollments can be made to fail, to exercise resuming an interrupted
+ * onboarding.
+ */
+public class StandInCertificateAuthority implements CertificateAuthority {
+
+	private static final String PLACEHOLDER_CERT = "-----BEGIN CERTIFICATE-----\n%s\n-----END CERTIFICATE-----\n";
+
+	private final ConcurrentMap<String, String> secrets = new ConcurrentHashMap<>();
+	private final long delay;
+	private volatile double enrollFailureRate;
+
+	/**
+	 * @param delay
+	 *            milliseconds each call takes
+	 */
+	public StandInCertificateAuthority(long delay) {
+		this(delay, 0);
+	}
+
+	/**
+	 * @param delay
+	 *            milliseconds each call takes
+	 * @param enrollFailureRate
+	 *            share of the enrollments failing, between 0 and 1
+	 */
+	public StandInCertificateAuthority(long delay, double enrollFailureRate) {
+		this.delay = delay;
+		setEnrollFailureRate(enrollFailureRate);
+	}
+
+	public void setEnrollFailureRate(double enrollFailureRate) {
+		if (enrollFailureRate < 0 || enrollFailureRate > 1) {
+			throw new IllegalArgumentException("Failure rate must be between 0 and 1 but was " + enrollFailureRate);
+		}
+		this.enrollFailureRate = enrollFailureRate;
+	}
+
+	/**
+	 * @return number of identities registered
+	 */
+	public int getRegistrations() {
+		return secrets.size();
+	}
+
+	@Override
+	public String register(String name, String affiliation, String secret, User registrar) throws Exception {
+		pause();
+		if (secrets.putIfAbsent(name, secret) != null) {
+			throw new IllegalStateException("Identity '" + name + "' is already registered");
+		}
+		return secret;
+	}
+
+	@Override
+	public Enrollment enroll(String name, String secret) throws Exception {
+		pause();
+		if (!secret.equals(secrets.get(name))) {
+			throw new IllegalStateException("Authentication failure for '" + name + "'");
+		}
+		if (ThreadLocalRandom.current().nextDouble() < enrollFailureRate) {
+			throw new IllegalStateException("Stand-in failure enrolling '" + name + "'");
+		}
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+		generator.initialize(new ECGenParameterSpec("secp256r1"));
+		final PrivateKey key = generator.generateKeyPair().getPrivate();
+		final String cert = String.format(PLACEHOLDER_CERT, name);
+		return new Enrollment() {
+
+			@Override
+			public PrivateKey getKey() {
+				return key;
+			}
+
+			@Override
+			public String getCert() {
+				return cert;
+			}
+		};
+	}
+
+	private void pause() throws InterruptedException {
+		if (delay > 0) {
+			Thread.sleep(delay);
+		}
+	}
+
+}
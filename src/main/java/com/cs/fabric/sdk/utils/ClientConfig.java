@@ -14,12 +14,30 @@
 package com.cs.fabric.sdk.utils;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -32,7 +50,7 @@ import com.cs.fabric.sdkintegration.SampleOrg;
  * Config allows for a global config of the toolkit. Central location for all
  * toolkit configuration defaults. Has a local config file that can override any
  * property defaults. Config file can be relocated via a system property
- * "org.hyperledger.fabric.sdk.configuration". Any property can be overridden
+ * "org.hyperledger.fabric.sdktest.configuration". Any property can be overridden
  * with environment variable and then overridden
  * with a java system property. Property hierarchy goes System property
  * overrides environment variable which overrides config file for default values specified here.
@@ -40,6 +58,17 @@ import com.cs.fabric.sdkintegration.SampleOrg;
 
 /**
  * Test Configuration
+ *
+ * Each instance is an immutable snapshot, with every value parsed once when it
+ * is built. The config file is watched; when it changes a new snapshot is
+ * published and listeners are told, so that sessions can move to changed
+ * peer, orderer and event hub locations. A snapshot that fails to build is
+ * logged and the previous one kept.
+ *
+ * The channel topology comes from the org properties. When
+ * "org.hyperledger.fabric.sdktest.networkConfig" names a network config file,
+ * such as the ones in src/test/fixture/sdkintegration/network_configs, it
+ * comes from that file instead, see {@link ConnectionPlan}.
  */
 
 public class ClientConfig {
@@ -47,25 +76,66 @@ public class ClientConfig {
 
 	private static final String PROPBASE = "org.hyperledger.fabric.sdktest.";
 
+	private static final String CONFIGFILE = PROPBASE + "configuration";
+	private static final String DEFAULT_CONFIGFILE = "clientconfig.properties";
+	private static final long RELOAD_SETTLE_TIME = 200;
+
 	private static final String GOSSIPWAITTIME = PROPBASE + "GossipWaitTime";
 	private static final String INVOKEWAITTIME = PROPBASE + "InvokeWaitTime";
 	private static final String DEPLOYWAITTIME = PROPBASE + "DeployWaitTime";
 	private static final String PROPOSALWAITTIME = PROPBASE + "ProposalWaitTime";
+	private static final String ORDERERWAITTIME = PROPBASE + "OrdererWaitTime";
+	private static final String ORDERERATTEMPTWAITTIME = PROPBASE + "OrdererAttemptWaitTime";
+	private static final String ORDEREREJECTAFTER = PROPBASE + "OrdererEjectAfter";
+	private static final String ORDEREREJECTTIME = PROPBASE + "OrdererEjectTime";
+	private static final String ENDORSEMENTHEDGEDELAY = PROPBASE + "EndorsementHedgeDelay";
+	private static final String QUERYHEDGEPERCENTILE = PROPBASE + "QueryHedgePercentile";
+	private static final String QUERYHEDGEDELAY = PROPBASE + "QueryHedgeDelay";
+	private static final String STATECACHESIZE = PROPBASE + "StateCacheSize";
+	private static final String INVOKERETRYATTEMPTS = PROPBASE + "InvokeRetryAttempts";
+	private static final String INVOKERETRYBASEDELAY = PROPBASE + "InvokeRetryBaseDelay";
+	private static final String INVOKERETRYMAXDELAY = PROPBASE + "InvokeRetryMaxDelay";
+	private static final String GRPCPROFILE = PROPBASE + "grpcProfile.";
 
 	private static final String INTEGRATIONTESTS_ORG = PROPBASE + "integrationTests.org.";
 	private static final Pattern orgPat = Pattern
 			.compile("^" + Pattern.quote(INTEGRATIONTESTS_ORG) + "([^\\.]+)\\.mspid$");
 
 	private static final String INTEGRATIONTESTSTLS = PROPBASE + "integrationtests.tls";
+	private static final String NETWORKCONFIG = PROPBASE + "networkConfig";
 
-	private static ClientConfig config;
-	private final static Properties sdkProperties = new Properties();
+	private static final AtomicReference<ClientConfig> config = new AtomicReference<>();
+	private static final List<BiConsumer<ClientConfig, ClientConfig>> listeners = new CopyOnWriteArrayList<>();
+	private static Path configFile;
+	private final Properties sdkProperties = new Properties();
 	private final boolean runningTLS;
 	private final boolean runningFabricCATLS;
 	private final boolean runningFabricTLS;
-	private final static HashMap<String, SampleOrg> sampleOrgs = new HashMap<>();
-
-	private ClientConfig() {
+	private final Map<String, SampleOrg> sampleOrgs = new HashMap<>();
+	private final Path networkConfigFile;
+	private final String networkConfigStamp;
+	private final ConnectionPlan connectionPlan;
+	private final ConcurrentMap<String, Properties> endPointProperties = new ConcurrentHashMap<>();
+
+	private final int transactionWaitTime;
+	private final int deployWaitTime;
+	private final int gossipWaitTime;
+	private final long proposalWaitTime;
+	private final long ordererWaitTime;
+	private final long ordererAttemptWaitTime;
+	private final int ordererEjectAfter;
+	private final long ordererEjectTime;
+	private final long endorsementHedgeDelay;
+	private final double queryHedgePercentile;
+	private final long queryHedgeDelay;
+	private final int stateCacheSize;
+	private final int invokeRetryAttempts;
+	private final long invokeRetryBaseDelay;
+	private final long invokeRetryMaxDelay;
+
+	private ClientConfig(Properties fileProperties) {
+
+		sdkProperties.putAll(fileProperties);
 
 		// Default values
 
@@ -73,6 +143,22 @@ public class ClientConfig {
 		defaultProperty(INVOKEWAITTIME, "100000");
 		defaultProperty(DEPLOYWAITTIME, "120000");
 		defaultProperty(PROPOSALWAITTIME, "120000");
+		defaultProperty(ORDERERWAITTIME, "10000");
+		defaultProperty(ORDERERATTEMPTWAITTIME, "3000");
+		defaultProperty(ORDEREREJECTAFTER, "3");
+		defaultProperty(ORDEREREJECTTIME, "30000");
+		defaultProperty(ENDORSEMENTHEDGEDELAY, "1000");
+		defaultProperty(QUERYHEDGEPERCENTILE, "95");
+		defaultProperty(QUERYHEDGEDELAY, "500");
+		defaultProperty(STATECACHESIZE, "10000");
+		defaultProperty(INVOKERETRYATTEMPTS, "5");
+		defaultProperty(INVOKERETRYBASEDELAY, "100");
+		defaultProperty(INVOKERETRYMAXDELAY, "5000");
+		// gRPC tuning per endpoint type, overridden per endpoint with
+		// grpcProfile.<name>
+		defaultProperty(GRPCPROFILE + "peer", GrpcProfile.LOW_LATENCY.name());
+		defaultProperty(GRPCPROFILE + "eventhub", GrpcProfile.BULK_DELIVERY.name());
+		defaultProperty(GRPCPROFILE + "orderer", GrpcProfile.WAN_ORDERER.name());
 
 		//////
 		defaultProperty(INTEGRATIONTESTS_ORG + "peerOrg1.mspid", "Org1MSP");
@@ -98,6 +184,7 @@ public class ClientConfig {
 		runningTLS = null != sdkProperties.getProperty(INTEGRATIONTESTSTLS, null);
 		runningFabricCATLS = runningTLS;
 		runningFabricTLS = runningTLS;
+		defaultProperty(NETWORKCONFIG, null);
 
 		for (Map.Entry<Object, Object> x : sdkProperties.entrySet()) {
 			final String key = x.getKey() + "";
@@ -167,6 +254,47 @@ public class ClientConfig {
 			}
 		}
 
+		transactionWaitTime = Integer.parseInt(getProperty(INVOKEWAITTIME));
+		deployWaitTime = Integer.parseInt(getProperty(DEPLOYWAITTIME));
+		gossipWaitTime = Integer.parseInt(getProperty(GOSSIPWAITTIME));
+		proposalWaitTime = Long.parseLong(getProperty(PROPOSALWAITTIME));
+		ordererWaitTime = Long.parseLong(getProperty(ORDERERWAITTIME));
+		ordererAttemptWaitTime = Long.parseLong(getProperty(ORDERERATTEMPTWAITTIME));
+		ordererEjectAfter = Integer.parseInt(getProperty(ORDEREREJECTAFTER));
+		ordererEjectTime = Long.parseLong(getProperty(ORDEREREJECTTIME));
+		endorsementHedgeDelay = Long.parseLong(getProperty(ENDORSEMENTHEDGEDELAY));
+		queryHedgePercentile = Double.parseDouble(getProperty(QUERYHEDGEPERCENTILE));
+		queryHedgeDelay = Long.parseLong(getProperty(QUERYHEDGEDELAY));
+		stateCacheSize = Integer.parseInt(getProperty(STATECACHESIZE));
+		invokeRetryAttempts = Integer.parseInt(getProperty(INVOKERETRYATTEMPTS));
+		invokeRetryBaseDelay = Long.parseLong(getProperty(INVOKERETRYBASEDELAY));
+		invokeRetryMaxDelay = Long.parseLong(getProperty(INVOKERETRYMAXDELAY));
+		for (String key : sdkProperties.stringPropertyNames()) {
+			if (key.startsWith(GRPCPROFILE)) {
+				GrpcProfile.forName(sdkProperties.getProperty(key)); // reject unknown profiles
+			}
+		}
+
+		// Channels are built from the network config when one is configured
+		String networkConfigName = getProperty(NETWORKCONFIG, null);
+		networkConfigFile = networkConfigName != null ? Paths.get(networkConfigName).toAbsolutePath() : null;
+		File networkConfig = networkConfigFile != null ? networkConfigFile.toFile() : null;
+		if (networkConfig == null) {
+			networkConfigStamp = null;
+			connectionPlan = null;
+		} else if (networkConfig.isFile()) {
+			networkConfigStamp = networkConfig.lastModified() + ":" + networkConfig.length();
+			try {
+				connectionPlan = ConnectionPlan.load(networkConfig,
+						(type, name) -> getGrpcProfile(type, name).toProperties());
+			} catch (IOException e) {
+				throw new RuntimeException(String.format("Bad network config %s", networkConfigFile), e);
+			}
+		} else {
+			logger.info(String.format("No network config at %s, using the org properties", networkConfigFile));
+			networkConfigStamp = null;
+			connectionPlan = null;
+		}
 	}
 
 	private String grpcTLSify(String location) {
@@ -186,16 +314,157 @@ public class ClientConfig {
 	}
 
 	/**
-	 * getConfig return back singleton for SDK configuration.
+	 * getConfig return back the current snapshot of the configuration.
 	 *
 	 * @return Global configuration
 	 */
 	public static ClientConfig getConfig() {
-		if (null == config) {
-			config = new ClientConfig();
+		ClientConfig current = config.get();
+		if (null == current) {
+			synchronized (ClientConfig.class) {
+				current = config.get();
+				if (null == current) {
+					configFile = Paths.get(System.getProperty(CONFIGFILE, DEFAULT_CONFIGFILE)).toAbsolutePath();
+					current = new ClientConfig(loadFile(configFile));
+					config.set(current);
+					watch(configFile, current.networkConfigFile);
+				}
+			}
+		}
+		return current;
+
+	}
+
+	/**
+	 * Register a listener called with the previous and the new snapshot after
+	 * the configuration changed.
+	 *
+	 * @param listener
+	 */
+	public static void addListener(BiConsumer<ClientConfig, ClientConfig> listener) {
+		listeners.add(listener);
+	}
+
+	public static void removeListener(BiConsumer<ClientConfig, ClientConfig> listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Read the config file and the network config again and publish a new
+	 * snapshot if either changed. Called when one of the files changes.
+	 *
+	 * @return true if a new snapshot was published
+	 */
+	public static boolean reload() {
+		ClientConfig previous = getConfig();
+		ClientConfig current;
+		try {
+			current = new ClientConfig(loadFile(configFile));
+		} catch (RuntimeException e) {
+			logger.warn(String.format("Keeping the current configuration, could not apply \"%s\": %s", configFile,
+					e.getMessage()));
+			return false;
+		}
+		if (current.sdkProperties.equals(previous.sdkProperties)
+				&& Objects.equals(current.networkConfigStamp, previous.networkConfigStamp)
+				|| !config.compareAndSet(previous, current)) {
+			return false;
+		}
+		logger.info(String.format("Applied configuration from \"%s\"", configFile));
+		for (BiConsumer<ClientConfig, ClientConfig> listener : listeners) {
+			try {
+				listener.accept(previous, current);
+			} catch (RuntimeException e) {
+				logger.warn("Configuration listener failed: " + e.getMessage(), e);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param other
+	 * @param orgName
+	 * @return true if the org has the same peer, orderer and event hub
+	 *         locations and the same network config in both snapshots
+	 */
+	public boolean hasSameEndpoints(ClientConfig other, String orgName) {
+		if (!Objects.equals(networkConfigFile, other.networkConfigFile)
+				|| !Objects.equals(networkConfigStamp, other.networkConfigStamp)) {
+			return false;
+		}
+		for (String locations : new String[] { ".peer_locations", ".orderer_locations", ".eventhub_locations" }) {
+			String key = INTEGRATIONTESTS_ORG + orgName + locations;
+			if (!Objects.equals(sdkProperties.getProperty(key), other.sdkProperties.getProperty(key))) {
+				return false;
+			}
 		}
-		return config;
+		return runningFabricTLS == other.runningFabricTLS;
+	}
 
+	private static Properties loadFile(Path file) {
+		Properties properties = new Properties();
+		if (Files.isRegularFile(file)) {
+			try (InputStream in = Files.newInputStream(file)) {
+				properties.load(in);
+			} catch (IOException e) {
+				logger.warn(String.format("Could not load configuration file \"%s\", reason:%s", file,
+						e.getMessage()));
+			}
+		}
+		return properties;
+	}
+
+	/**
+	 * Reload whenever one of the files is created or modified, from a daemon
+	 * thread. Events are collected until the files have been quiet for a
+	 * moment, so that a file being rewritten is not read half written.
+	 */
+	private static void watch(Path... files) {
+		final WatchService watchService;
+		try {
+			watchService = FileSystems.getDefault().newWatchService();
+		} catch (IOException e) {
+			logger.warn("Could not watch configuration files, reason:" + e.getMessage());
+			return;
+		}
+		final List<Path> watched = new ArrayList<>();
+		for (Path file : files) {
+			if (file == null) {
+				continue; // not configured
+			}
+			watched.add(file);
+			try {
+				file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_MODIFY);
+			} catch (IOException e) {
+				logger.warn(String.format("Could not watch configuration file \"%s\", reason:%s", file,
+						e.getMessage()));
+			}
+		}
+		Thread thread = new Thread(() -> {
+			try {
+				while (true) {
+					WatchKey key = watchService.take();
+					boolean changed = false;
+					while (key != null) {
+						Path directory = (Path) key.watchable();
+						for (WatchEvent<?> event : key.pollEvents()) {
+							changed |= event.kind() == StandardWatchEventKinds.OVERFLOW
+									|| watched.contains(directory.resolve((Path) event.context()));
+						}
+						key.reset();
+						key = watchService.poll(RELOAD_SETTLE_TIME, TimeUnit.MILLISECONDS);
+					}
+					if (changed) {
+						reload();
+					}
+				}
+			} catch (InterruptedException e) {
+				logger.debug("Stopped watching configuration file");
+			}
+		}, "client-config-watcher");
+		thread.setDaemon(true);
+		thread.start();
 	}
 
 	/**
@@ -227,7 +496,7 @@ public class ClientConfig {
 		return sdkProperties.getProperty(property, defaultValue);
 	}
 
-	static private void defaultProperty(String key, String value) {
+	private void defaultProperty(String key, String value) {
 
 		String ret = System.getProperty(key);
 		if (ret != null) {
@@ -248,15 +517,15 @@ public class ClientConfig {
 	}
 
 	public int getTransactionWaitTime() {
-		return Integer.parseInt(getProperty(INVOKEWAITTIME));
+		return transactionWaitTime;
 	}
 
 	public int getDeployWaitTime() {
-		return Integer.parseInt(getProperty(DEPLOYWAITTIME));
+		return deployWaitTime;
 	}
 
 	public int getGossipWaitTime() {
-		return Integer.parseInt(getProperty(GOSSIPWAITTIME));
+		return gossipWaitTime;
 	}
 
 	/**
@@ -265,7 +534,111 @@ public class ClientConfig {
 	 * @return
 	 */
 	public long getProposalWaitTime() {
-		return Integer.parseInt(getProperty(PROPOSALWAITTIME));
+		return proposalWaitTime;
+	}
+
+	/**
+	 * Time in milliseconds to wait for the orderer to accept a transaction
+	 *
+	 * @return
+	 */
+	public long getOrdererWaitTime() {
+		return ordererWaitTime;
+	}
+
+	/**
+	 * Time in milliseconds an orderer gets to accept a transaction before the
+	 * next orderer is tried, within the orderer wait time
+	 *
+	 * @return
+	 */
+	public long getOrdererAttemptWaitTime() {
+		return ordererAttemptWaitTime;
+	}
+
+	/**
+	 * Number of consecutive failed broadcasts after which an orderer is no
+	 * longer used
+	 *
+	 * @return
+	 */
+	public int getOrdererEjectAfter() {
+		return ordererEjectAfter;
+	}
+
+	/**
+	 * Time in milliseconds before an ejected orderer is tried again
+	 *
+	 * @return
+	 */
+	public long getOrdererEjectTime() {
+		return ordererEjectTime;
+	}
+
+	/**
+	 * Time in milliseconds to wait for endorsements before asking other peers
+	 *
+	 * @return
+	 */
+	public long getEndorsementHedgeDelay() {
+		return endorsementHedgeDelay;
+	}
+
+	/**
+	 * Latency percentile of a peer after which a query it has not answered is
+	 * sent to a second peer
+	 *
+	 * @return
+	 */
+	public double getQueryHedgePercentile() {
+		return queryHedgePercentile;
+	}
+
+	/**
+	 * Time in milliseconds to wait for a query before asking a second peer,
+	 * used until latencies of the first peer are known
+	 *
+	 * @return
+	 */
+	public long getQueryHedgeDelay() {
+		return queryHedgeDelay;
+	}
+
+	/**
+	 * Maximum number of letters of credit whose state is cached
+	 *
+	 * @return
+	 */
+	public int getStateCacheSize() {
+		return stateCacheSize;
+	}
+
+	/**
+	 * Number of attempts, including the first one, for a transaction
+	 * invalidated by a read conflict
+	 *
+	 * @return
+	 */
+	public int getInvokeRetryAttempts() {
+		return invokeRetryAttempts;
+	}
+
+	/**
+	 * Upper bound in milliseconds of the delay before the first retry
+	 *
+	 * @return
+	 */
+	public long getInvokeRetryBaseDelay() {
+		return invokeRetryBaseDelay;
+	}
+
+	/**
+	 * Upper bound in milliseconds of the delay before any retry
+	 *
+	 * @return
+	 */
+	public long getInvokeRetryMaxDelay() {
+		return invokeRetryMaxDelay;
 	}
 
 	public Collection<SampleOrg> getIntegrationTestsSampleOrgs() {
@@ -277,33 +650,75 @@ public class ClientConfig {
 
 	}
 
+	/**
+	 * @param type
+	 *            peer, eventhub or orderer
+	 * @param name
+	 *            name of the endpoint
+	 * @return the gRPC profile assigned to the endpoint, or else to its type
+	 */
+	public GrpcProfile getGrpcProfile(String type, String name) {
+		String profile = sdkProperties.getProperty(GRPCPROFILE + name);
+		if (profile == null) {
+			profile = sdkProperties.getProperty(GRPCPROFILE + type, GrpcProfile.DEFAULT.name());
+		}
+		return GrpcProfile.forName(profile);
+	}
+
+	/**
+	 * @return topology loaded from the network config, null if there is no
+	 *         network config file
+	 */
+	public ConnectionPlan getConnectionPlan() {
+		return connectionPlan;
+	}
+
 	private final static String tlsbase = "src/test/fixture/sdkintegration/e2e-2Orgs/tls/";
 
 	public Properties getPeerProperties(String name) {
 
-		return getEndPointProperties("peer", name);
+		return getEndPointProperties("peer", "peer", name);
 
 	}
 
 	public Properties getOrdererProperties(String name) {
 
-		return getEndPointProperties("orderer", name);
+		return getEndPointProperties("orderer", "orderer", name);
 
 	}
 
-	private Properties getEndPointProperties(final String type, final String name) {
+	/**
+	 * The properties are built once per snapshot, each caller gets a copy.
+	 */
+	private Properties getEndPointProperties(final String type, final String profileType, final String name) {
+
+		Properties ret = new Properties();
+		ret.putAll(endPointProperties.computeIfAbsent(profileType + ":" + name,
+				key -> loadEndPointProperties(type, profileType, name)));
+		return ret;
+	}
+
+	private Properties loadEndPointProperties(final String type, final String profileType, final String name) {
 
 		final String domainName = getDomainName(name);
 
+		// Trust the TLS CA of the endpoint's org rather than the endpoint's
+		// own certificate, so that the endpoints of an org share one root
 		File cert = Paths.get(getTestChannelPath(), "crypto-config/ordererOrganizations".replace("orderer", type),
-				domainName, type + "s", name, "tls/server.crt").toFile();
+				domainName, "tlsca", "tlsca." + domainName + "-cert.pem").toFile();
 		if (!cert.exists()) {
-			throw new RuntimeException(String.format("Missing cert file for: %s. Could not find at location: %s", name,
-					cert.getAbsolutePath()));
+			throw new RuntimeException(String.format("Missing TLS CA cert file for: %s. Could not find at location: %s",
+					name, cert.getAbsolutePath()));
 		}
 
 		Properties ret = new Properties();
-		ret.setProperty("pemFile", cert.getAbsolutePath());
+		try {
+			ret.put("pemBytes", TrustRoots.read(cert));
+		} catch (IOException e) {
+			throw new RuntimeException(String.format("Could not read cert file for: %s at location: %s", name,
+					cert.getAbsolutePath()), e);
+		}
+		ret.putAll(getGrpcProfile(profileType, name).toProperties());
 		// ret.setProperty("trustServerCertificate", "true"); //testing
 		// environment only NOT FOR PRODUCTION!
 		ret.setProperty("hostnameOverride", name);
@@ -315,7 +730,7 @@ public class ClientConfig {
 
 	public Properties getEventHubProperties(String name) {
 
-		return getEndPointProperties("peer", name); // uses same as named peer
+		return getEndPointProperties("peer", "eventhub", name); // uses the cert of the named peer
 
 	}
 
@@ -0,0 +1,350 @@
+package com.cs.fabric.sdk.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.BiFunction;
+
+import org.yaml.snakeyaml.Yaml;
+
+/**
+ * Channel topology read once from a network config file, such as
+ * src/test/fixture/sdkintegration/network_configs/network-config.yaml.
+ *
+ * Every endpoint is resolved when the plan is loaded: its URL, its gRPC
+ * options, and for grpcs:// endpoints the TLS certificate, which is held in
+ * memory and passed to the SDK as pemBytes. Building a channel from the plan
+ * reads no files. Endpoints trusting the same CA share one copy of it, see
+ * {@link TrustRoots}.
+ */
+public final class ConnectionPlan {
+
+	private final String name;
+	private final String clientOrganization;
+	private final Map<String, Organization> organizations = new LinkedHashMap<>();
+	private final Map<String, Endpoint> peers = new LinkedHashMap<>();
+	private final Map<String, Endpoint> eventHubs = new LinkedHashMap<>();
+	private final Map<String, Endpoint> orderers = new LinkedHashMap<>();
+	private final Map<String, ChannelPlan> channels = new LinkedHashMap<>();
+
+	/**
+	 * Load a network config in YAML or JSON.
+	 *
+	 * @param file
+	 * @return the plan
+	 * @throws IOException
+	 *             if the file or a certificate file can not be read
+	 */
+	public static ConnectionPlan load(File file) throws IOException {
+		return load(file, (type, name) -> new Properties());
+	}
+
+	/**
+	 * Load a network config in YAML or JSON.
+	 *
+	 * @param file
+	 * @param channelOptions
+	 *            gRPC options by endpoint type (peer, eventhub or orderer)
+	 *            and name, used unless the network config sets them for the
+	 *            endpoint
+	 * @return the plan
+	 * @throws IOException
+	 *             if the file or a certificate file can not be read
+	 */
+	public static ConnectionPlan load(File file, BiFunction<String, String, Properties> channelOptions) throws IOException {
+		Object root;
+		try (InputStream in = Files.newInputStream(file.toPath())) {
+			root = new Yaml().load(in); // JSON is valid YAML
+		} catch (RuntimeException e) {
+			throw new IOException(String.format("Could not parse network config %s: %s", file, e.getMessage()), e);
+		}
+		return new ConnectionPlan(map(root), channelOptions);
+	}
+
+	private ConnectionPlan(Map<String, Object> root, BiFunction<String, String, Properties> channelOptions) throws IOException {
+		this.name = string(root.get("name"));
+		this.clientOrganization = string(map(root.get("client")).get("organization"));
+
+		for (Map.Entry<String, Object> org : map(root.get("organizations")).entrySet()) {
+			Map<String, Object> value = map(org.getValue());
+			organizations.put(org.getKey(),
+					new Organization(org.getKey(), string(value.get("mspid")), strings(value.get("peers"))));
+		}
+
+		for (Map.Entry<String, Object> peer : map(root.get("peers")).entrySet()) {
+			Map<String, Object> value = map(peer.getValue());
+			peers.put(peer.getKey(), endpoint("peer", peer.getKey(), string(value.get("url")), value, channelOptions));
+			if (value.get("eventUrl") != null) {
+				eventHubs.put(peer.getKey(),
+						endpoint("eventhub", peer.getKey(), string(value.get("eventUrl")), value, channelOptions));
+			}
+		}
+
+		for (Map.Entry<String, Object> orderer : map(root.get("orderers")).entrySet()) {
+			Map<String, Object> value = map(orderer.getValue());
+			orderers.put(orderer.getKey(), endpoint("orderer", orderer.getKey(), string(value.get("url")),
+					value, channelOptions));
+		}
+
+		for (Map.Entry<String, Object> channel : map(root.get("channels")).entrySet()) {
+			channels.put(channel.getKey(), new ChannelPlan(channel.getKey(), map(channel.getValue())));
+		}
+	}
+
+	private static Endpoint endpoint(String type, String name, String url, Map<String, Object> value, BiFunction<String, String, Properties> channelOptions)
+			throws IOException {
+		if (url == null) {
+			throw new IOException("Missing url of " + name);
+		}
+		Properties properties = new Properties();
+		for (Map.Entry<String, Object> option : map(value.get("grpcOptions")).entrySet()) {
+			if (option.getValue() != null) {
+				properties.put(option.getKey(), option.getValue());
+			}
+		}
+		for (Map.Entry<Object, Object> option : channelOptions.apply(type, name).entrySet()) {
+			properties.putIfAbsent(option.getKey(), option.getValue());
+		}
+		if (properties.containsKey("ssl-target-name-override")) {
+			properties.putIfAbsent("hostnameOverride", properties.get("ssl-target-name-override"));
+		}
+
+		if (url.startsWith("grpcs://")) {
+			Map<String, Object> tls = map(value.get("tlsCACerts"));
+			byte[] pem;
+			if (tls.get("pem") != null) {
+				pem = TrustRoots.intern(string(tls.get("pem")).getBytes(StandardCharsets.UTF_8));
+			} else if (tls.get("path") != null) {
+				pem = TrustRoots.read(new File(string(tls.get("path"))));
+			} else {
+				throw new IOException("Missing tlsCACerts of " + name);
+			}
+			properties.put("pemBytes", pem);
+			properties.putIfAbsent("hostnameOverride", name);
+			properties.putIfAbsent("sslProvider", "openSSL");
+			properties.putIfAbsent("negotiationType", "TLS");
+		}
+		return new Endpoint(name, url, properties);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return organization the client belongs to
+	 */
+	public String getClientOrganization() {
+		return clientOrganization;
+	}
+
+	public Collection<Organization> getOrganizations() {
+		return Collections.unmodifiableCollection(organizations.values());
+	}
+
+	public Organization getOrganization(String name) {
+		return organizations.get(name);
+	}
+
+	/**
+	 * @param name
+	 * @return the channel, null if the config does not describe it
+	 */
+	public ChannelPlan getChannel(String name) {
+		return channels.get(name);
+	}
+
+	public Endpoint getPeer(String name) {
+		return peers.get(name);
+	}
+
+	/**
+	 * @param name
+	 *            name of the peer
+	 * @return event hub of the peer, null if it has no event URL
+	 */
+	public Endpoint getEventHub(String name) {
+		return eventHubs.get(name);
+	}
+
+	public Endpoint getOrderer(String name) {
+		return orderers.get(name);
+	}
+
+	/**
+	 * @return MSP id by peer name, for the peers of all organizations
+	 */
+	public Map<String, String> getPeerMspIds() {
+		Map<String, String> peerMspIds = new LinkedHashMap<>();
+		for (Organization organization : organizations.values()) {
+			for (String peerName : organization.getPeerNames()) {
+				peerMspIds.put(peerName, organization.getMspId());
+			}
+		}
+		return peerMspIds;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> map(Object value) {
+		if (value == null) {
+			return Collections.emptyMap();
+		}
+		if (!(value instanceof Map)) {
+			throw new IllegalArgumentException("Expected a mapping but found " + value);
+		}
+		Map<String, Object> map = new LinkedHashMap<>();
+		for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+			map.put(String.valueOf(entry.getKey()), entry.getValue());
+		}
+		return map;
+	}
+
+	private static List<String> strings(Object value) {
+		List<String> strings = new ArrayList<>();
+		if (value instanceof Collection) {
+			for (Object item : (Collection<?>) value) {
+				strings.add(string(item));
+			}
+		} else if (value != null) {
+			strings.addAll(map(value).keySet());
+		}
+		return Collections.unmodifiableList(strings);
+	}
+
+	private static String string(Object value) {
+		return value == null ? null : value.toString().trim();
+	}
+
+	private static boolean flag(Map<String, Object> map, String key) {
+		Object value = map.get(key);
+		return value == null || Boolean.parseBoolean(value.toString());
+	}
+
+	/**
+	 * A peer, event hub or orderer with everything needed to connect to it.
+	 */
+	public static final class Endpoint {
+
+		private final String name;
+		private final String url;
+		private final Properties properties;
+
+		private Endpoint(String name, String url, Properties properties) {
+			this.name = name;
+			this.url = url;
+			this.properties = properties;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getUrl() {
+			return url;
+		}
+
+		/**
+		 * @return a copy of the connection properties, free to modify
+		 */
+		public Properties getProperties() {
+			Properties copy = new Properties();
+			copy.putAll(properties);
+			return copy;
+		}
+	}
+
+	public static final class Organization {
+
+		private final String name;
+		private final String mspId;
+		private final List<String> peerNames;
+
+		private Organization(String name, String mspId, List<String> peerNames) {
+			this.name = name;
+			this.mspId = mspId;
+			this.peerNames = peerNames;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getMspId() {
+			return mspId;
+		}
+
+		public List<String> getPeerNames() {
+			return peerNames;
+		}
+	}
+
+	/**
+	 * Orderers and peers of a channel, with the roles the config gives the
+	 * peers. Roles not given default to true.
+	 */
+	public static final class ChannelPlan {
+
+		private final String name;
+		private final List<String> ordererNames;
+		private final List<String> peerNames;
+		private final List<String> endorsingPeerNames = new ArrayList<>();
+		private final List<String> chaincodeQueryPeerNames = new ArrayList<>();
+		private final List<String> eventSourceNames = new ArrayList<>();
+
+		private ChannelPlan(String name, Map<String, Object> value) {
+			this.name = name;
+			this.ordererNames = strings(value.get("orderers"));
+			Map<String, Object> peers = map(value.get("peers"));
+			this.peerNames = Collections.unmodifiableList(new ArrayList<>(peers.keySet()));
+			for (Map.Entry<String, Object> peer : peers.entrySet()) {
+				Map<String, Object> roles = map(peer.getValue());
+				if (flag(roles, "endorsingPeer")) {
+					endorsingPeerNames.add(peer.getKey());
+				}
+				if (flag(roles, "chaincodeQuery")) {
+					chaincodeQueryPeerNames.add(peer.getKey());
+				}
+				if (flag(roles, "eventSource")) {
+					eventSourceNames.add(peer.getKey());
+				}
+			}
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public List<String> getOrdererNames() {
+			return ordererNames;
+		}
+
+		public List<String> getPeerNames() {
+			return peerNames;
+		}
+
+		public List<String> getEndorsingPeerNames() {
+			return Collections.unmodifiableList(endorsingPeerNames);
+		}
+
+		public List<String> getChaincodeQueryPeerNames() {
+			return Collections.unmodifiableList(chaincodeQueryPeerNames);
+		}
+
+		/**
+		 * @return peers whose event hubs the channel connects to
+		 */
+		public List<String> getEventSourceNames() {
+			return Collections.unmodifiableList(eventSourceNames);
+		}
+	}
+
+}
@@ -0,0 +1,134 @@
+package com.cs.fabric.sdk.utils;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import io.grpc.netty.NettyChannelBuilder;
+
+/**
+ * Named gRPC tuning for a kind of traffic, assigned per endpoint by
+ * {@link ClientConfig}.
+ *
+ * A profile sets the HTTP/2 flow control window, keepalive, the largest
+ * message accepted and whether calls run on the transport thread, all of
+ * which reach the SDK's channel builder through endpoint properties.
+ * Keepalive intervals stay at or above one minute, the shortest ping
+ * interval peers and orderers accept by default. Compression is not part of
+ * a profile: gRPC sets it per call, and the SDK offers no way to set it on
+ * its stubs.
+ */
+public enum GrpcProfile {
+
+	/**
+	 * gRPC defaults, except for messages up to 9 MB.
+	 */
+	DEFAULT(1 << 20, 300000, 20000, 9000000, false),
+
+	/**
+	 * Small proposals and responses on a LAN: completions run on the
+	 * transport thread instead of hopping to an executor.
+	 *
+	 * With directExecutor, gRPC runs the SDK's response observers on the
+	 * Netty event loop of the connection: message decoding and what the SDK
+	 * does on receipt, such as completing the future a proposal caller waits
+	 * on or queueing an event hub's event. Those hand-offs do not block, but
+	 * anything chained on them without an executor runs there too and, if it
+	 * blocks, stalls every call on the connection.
+	 */
+	LOW_LATENCY(1 << 20, 60000, 10000, 9000000, true),
+
+	/**
+	 * Block delivery: a large window keeps blocks streaming, messages up to
+	 * the 100 MB a block can reach.
+	 */
+	BULK_DELIVERY(16 << 20, 300000, 20000, 100 << 20, false),
+
+	/**
+	 * Links with a large bandwidth-delay product, such as an orderer in
+	 * another data center: a window covering the round trip, frequent
+	 * keepalive to hold NAT and load balancer paths open.
+	 */
+	WAN_ORDERER(8 << 20, 60000, 20000, 9000000, false);
+
+	private static final String OPTION = "grpc.NettyChannelBuilderOption.";
+
+	private final int flowControlWindow;
+	private final long keepAliveTime;
+	private final long keepAliveTimeout;
+	private final int maxInboundMessageSize;
+	private final boolean directExecutor;
+
+	GrpcProfile(int flowControlWindow, long keepAliveTime, long keepAliveTimeout, int maxInboundMessageSize,
+			boolean directExecutor) {
+		this.flowControlWindow = flowControlWindow;
+		this.keepAliveTime = keepAliveTime;
+		this.keepAliveTimeout = keepAliveTimeout;
+		this.maxInboundMessageSize = maxInboundMessageSize;
+		this.directExecutor = directExecutor;
+	}
+
+	/**
+	 * @param name
+	 *            profile name, in any case
+	 * @return the profile
+	 * @throws IllegalArgumentException
+	 *             if there is no such profile
+	 */
+	public static GrpcProfile forName(String name) {
+		return valueOf(name.trim().toUpperCase());
+	}
+
+	/**
+	 * @return endpoint properties passing the profile to the SDK's channel
+	 *         builder
+	 */
+	public Properties toProperties() {
+		Properties properties = new Properties();
+		properties.put(OPTION + "flowControlWindow", new Object[] { flowControlWindow });
+		properties.put(OPTION + "maxInboundMessageSize", new Object[] { maxInboundMessageSize });
+		properties.put(OPTION + "keepAliveTime", new Object[] { keepAliveTime, TimeUnit.MILLISECONDS });
+		properties.put(OPTION + "keepAliveTimeout", new Object[] { keepAliveTimeout, TimeUnit.MILLISECONDS });
+		properties.put(OPTION + "keepAliveWithoutCalls", new Object[] { true });
+		if (directExecutor) {
+			properties.put(OPTION + "directExecutor", new Object[0]);
+		}
+		return properties;
+	}
+
+	/**
+	 * Apply the profile to a channel builder.
+	 *
+	 * @param builder
+	 * @return the builder
+	 */
+	public NettyChannelBuilder configure(NettyChannelBuilder builder) {
+		builder.flowControlWindow(flowControlWindow).maxInboundMessageSize(maxInboundMessageSize)
+				.keepAliveTime(keepAliveTime, TimeUnit.MILLISECONDS)
+				.keepAliveTimeout(keepAliveTimeout, TimeUnit.MILLISECONDS).keepAliveWithoutCalls(true);
+		if (directExecutor) {
+			builder.directExecutor();
+		}
+		return builder;
+	}
+
+	public int getFlowControlWindow() {
+		return flowControlWindow;
+	}
+
+	public long getKeepAliveTime() {
+		return keepAliveTime;
+	}
+
+	public long getKeepAliveTimeout() {
+		return keepAliveTimeout;
+	}
+
+	public int getMaxInboundMessageSize() {
+		return maxInboundMessageSize;
+	}
+
+	public boolean isDirectExecutor() {
+		return directExecutor;
+	}
+
+}
@@ -0,0 +1,66 @@
+package com.cs.fabric.sdk.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * TLS trust roots in PEM form, held once per process.
+ *
+ * Peers of an org, their event hubs and the orderers usually trust one of a
+ * few CA certificates. Each certificate file is read once, and equal
+ * certificates share one byte array, which the SDK receives as pemBytes.
+ */
+final class TrustRoots {
+
+	private static final ConcurrentMap<ByteBuffer, byte[]> roots = new ConcurrentHashMap<>();
+	private static final ConcurrentMap<String, Entry> files = new ConcurrentHashMap<>();
+
+	private TrustRoots() {
+	}
+
+	/**
+	 * @param pem
+	 * @return the shared copy of a certificate equal to the given one
+	 */
+	static byte[] intern(byte[] pem) {
+		byte[] root = roots.putIfAbsent(ByteBuffer.wrap(pem), pem);
+		return root != null ? root : pem;
+	}
+
+	/**
+	 * Read a certificate file, again only if it changed.
+	 *
+	 * @param file
+	 * @return the shared copy of the certificate
+	 * @throws IOException
+	 */
+	static byte[] read(File file) throws IOException {
+		String path = file.getAbsolutePath();
+		long lastModified = file.lastModified();
+		long length = file.length();
+		Entry entry = files.get(path);
+		if (entry == null || entry.lastModified != lastModified || entry.length != length) {
+			entry = new Entry(intern(Files.readAllBytes(file.toPath())), lastModified, length);
+			files.put(path, entry);
+		}
+		return entry.pem;
+	}
+
+	private static final class Entry {
+
+		private final byte[] pem;
+		private final long lastModified;
+		private final long length;
+
+		private Entry(byte[] pem, long lastModified, long length) {
+			this.pem = pem;
+			this.lastModified = lastModified;
+			this.length = length;
+		}
+	}
+
+}
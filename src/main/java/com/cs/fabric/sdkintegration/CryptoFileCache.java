@@ -0,0 +1,63 @@
+package com.cs.fabric.sdkintegration;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.PrivateKey;
+import java.security.spec.InvalidKeySpecException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.cs.fabric.sdkintegration.MemberCache.FileStamp;
+
+/**
+ * Decoded private keys and certificates by file. A file is read and parsed
+ * again only when its modification time or size changed.
+ */
+final class CryptoFileCache {
+
+	private static final ConcurrentMap<String, Cached<PrivateKey>> privateKeys = new ConcurrentHashMap<>();
+	private static final ConcurrentMap<String, Cached<String>> certificates = new ConcurrentHashMap<>();
+
+	private CryptoFileCache() {
+	}
+
+	static PrivateKey getPrivateKey(File file)
+			throws IOException, NoSuchProviderException, NoSuchAlgorithmException, InvalidKeySpecException {
+		FileStamp stamp = FileStamp.of(file);
+		Cached<PrivateKey> cached = privateKeys.get(file.getAbsolutePath());
+		if (cached != null && cached.stamp.equals(stamp)) {
+			return cached.value;
+		}
+		PrivateKey privateKey = SampleStore.getPrivateKeyFromBytes(Files.readAllBytes(file.toPath()));
+		privateKeys.put(file.getAbsolutePath(), new Cached<>(stamp, privateKey));
+		return privateKey;
+	}
+
+	static String getCertificate(File file) throws IOException {
+		FileStamp stamp = FileStamp.of(file);
+		Cached<String> cached = certificates.get(file.getAbsolutePath());
+		if (cached != null && cached.stamp.equals(stamp)) {
+			return cached.value;
+		}
+		String certificate = new String(Files.readAllBytes(file.toPath()), UTF_8);
+		certificates.put(file.getAbsolutePath(), new Cached<>(stamp, certificate));
+		return certificate;
+	}
+
+	private static final class Cached<T> {
+
+		final FileStamp stamp;
+		final T value;
+
+		Cached(FileStamp stamp, T value) {
+			this.stamp = stamp;
+			this.value = value;
+		}
+	}
+
+}
@@ -0,0 +1,191 @@
+package com.cs.fabric.sdkintegration;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size bounded cache of the users of a {@link SampleStore}, keyed by their
+ * key value store name.
+ *
+ * An entry remembers the store value it was restored from or saved as, and
+ * the crypto files it was built from. It is only returned while the store
+ * still holds that value and the files are unchanged, so a user changed by
+ * someone else is restored again instead of served stale. An entry found
+ * current also remembers the store generation it was checked at; while the
+ * generation stays the same the entry is current without reading its value.
+ *
+ * Lookups take no lock. Once the cache is full, adding a user evicts the
+ * least recently used of a few sampled entries.
+ */
+final class MemberCache {
+
+	private static final long UNCHECKED = -1;
+	private static final int EVICTION_SAMPLES = 8;
+
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+	private final AtomicLong clock = new AtomicLong();
+	private final int capacity;
+
+	MemberCache(int capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * @param key
+	 *            key value store name of the user
+	 * @param storedValue
+	 *            current store value of the user
+	 * @param sources
+	 *            current stamps of the files the user is built from, none to
+	 *            accept the user however it was built
+	 * @return cached user, null if not cached or out of date
+	 */
+	SampleUser get(String key, String storedValue, FileStamp... sources) {
+		Entry entry = entries.get(key);
+		if (entry == null || storedValue == null || !storedValue.equals(entry.storedValue)
+				|| (sources.length > 0 && !Arrays.equals(sources, entry.sources))) {
+			return null;
+		}
+		entry.lastUsed = clock.incrementAndGet();
+		return entry.user;
+	}
+
+	/**
+	 * @param key
+	 *            key value store name of the user
+	 * @param generation
+	 *            current generation of the store
+	 * @param sources
+	 *            current stamps of the files the user is built from
+	 * @return cached user if it was found current at this generation, null
+	 *         otherwise
+	 */
+	SampleUser getCurrent(String key, long generation, FileStamp... sources) {
+		Entry entry = entries.get(key);
+		if (entry == null || entry.generation != generation
+				|| (sources.length > 0 && !Arrays.equals(sources, entry.sources))) {
+			return null;
+		}
+		entry.lastUsed = clock.incrementAndGet();
+		return entry.user;
+	}
+
+	void put(String key, SampleUser user, String storedValue, FileStamp... sources) {
+		if (entries.put(key, new Entry(user, storedValue, sources, clock.incrementAndGet())) == null
+				&& entries.size() > capacity) {
+			evict();
+		}
+	}
+
+	/**
+	 * Record that the cached user was current at a store generation.
+	 */
+	void checked(String key, SampleUser user, long generation) {
+		Entry entry = entries.get(key);
+		if (entry != null && entry.user == user) {
+			entry.generation = generation;
+		}
+	}
+
+	/**
+	 * Record that a user saved its state. The saving instance becomes the
+	 * cached one; its file stamps are kept if it was already cached.
+	 */
+	void saved(String key, SampleUser user, String storedValue) {
+		Entry entry = entries.get(key);
+		FileStamp[] sources = entry != null && entry.user == user ? entry.sources : new FileStamp[0];
+		put(key, user, storedValue, sources);
+	}
+
+	private void evict() {
+		Map.Entry<String, Entry> oldest = null;
+		Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+		for (int i = 0; i < EVICTION_SAMPLES && iterator.hasNext(); i++) {
+			Map.Entry<String, Entry> candidate = iterator.next();
+			if (oldest == null || candidate.getValue().lastUsed < oldest.getValue().lastUsed) {
+				oldest = candidate;
+			}
+		}
+		if (oldest != null) {
+			entries.remove(oldest.getKey(), oldest.getValue());
+		}
+	}
+
+	private static final class Entry {
+
+		final SampleUser user;
+		final String storedValue;
+		final FileStamp[] sources;
+		volatile long generation = UNCHECKED;
+		volatile long lastUsed;
+
+		Entry(SampleUser user, String storedValue, FileStamp[] sources, long lastUsed) {
+			this.user = user;
+			this.storedValue = storedValue;
+			this.sources = sources;
+			this.lastUsed = lastUsed;
+		}
+	}
+
+	/**
+	 * Path, modification time and size of a file, to tell whether it changed
+	 * without reading it.
+	 */
+	static final class FileStamp {
+
+		// Stamps used by lookups are taken again at most this often
+		private static final long RECENT_STAMP_TIME = TimeUnit.SECONDS.toNanos(2);
+		private static final ConcurrentMap<String, FileStamp> recent = new ConcurrentHashMap<>();
+
+		private final String path;
+		private final long lastModified;
+		private final long length;
+		private final long takenAt;
+
+		private FileStamp(String path, long lastModified, long length) {
+			this.path = path;
+			this.lastModified = lastModified;
+			this.length = length;
+			this.takenAt = System.nanoTime();
+		}
+
+		static FileStamp of(File file) {
+			FileStamp stamp = new FileStamp(file.getAbsolutePath(), file.lastModified(), file.length());
+			recent.put(stamp.path, stamp);
+			return stamp;
+		}
+
+		/**
+		 * Stamp a file without touching it if it was stamped recently. A
+		 * change of the file is noticed within two seconds.
+		 */
+		static FileStamp recent(File file) {
+			FileStamp stamp = recent.get(file.getAbsolutePath());
+			if (stamp != null && System.nanoTime() - stamp.takenAt < RECENT_STAMP_TIME) {
+				return stamp;
+			}
+			return of(file);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof FileStamp)) {
+				return false;
+			}
+			FileStamp other = (FileStamp) obj;
+			return path.equals(other.path) && lastModified == other.lastModified && length == other.length;
+		}
+
+		@Override
+		public int hashCode() {
+			return path.hashCode() * 31 + Long.hashCode(lastModified ^ length);
+		}
+	}
+
+}
@@ -1,25 +1,22 @@
 package com.cs.fabric.sdkintegration;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Serializable;
 import java.io.StringReader;
+import java.security.KeyFactory;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.PrivateKey;
 import java.security.Security;
 import java.security.spec.InvalidKeySpecException;
-import java.util.HashMap;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
@@ -28,17 +25,31 @@ import org.bouncycastle.openssl.PEMParser;
 import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
 import org.hyperledger.fabric.sdk.Enrollment;
 
+import com.cs.fabric.sdkintegration.MemberCache.FileStamp;
+
 /**
  * A local file-based key value store.
+ *
+ * Values are read from an in-memory index and changes are appended to the
+ * file, see {@link SampleStoreLog}. Several processes can share the file.
+ * Users are cached, see {@link MemberCache}.
  */
 public class SampleStore {
 
+	private static final int MAX_CACHED_MEMBERS = 10000;
+	private static final ConcurrentMap<String, MemberCache> memberCaches = new ConcurrentHashMap<>();
+
 	private String file;
+	private final SampleStoreLog log;
+	private final MemberCache members;
+	private Map<String, String> batch;
 	private Log logger = LogFactory.getLog(SampleStore.class);
 
 	public SampleStore(File file) {
 
 		this.file = file.getAbsolutePath();
+		this.log = SampleStoreLog.open(this.file);
+		this.members = memberCaches.computeIfAbsent(this.file, f -> new MemberCache(MAX_CACHED_MEMBERS));
 	}
 
 	/**
@@ -48,23 +59,12 @@ public class SampleStore {
 	 * @return value associated with the name
 	 */
 	public String getValue(String name) {
-		Properties properties = loadProperties();
-		return properties.getProperty(name);
-	}
-
-	private Properties loadProperties() {
-		Properties properties = new Properties();
-		try (InputStream input = new FileInputStream(file)) {
-			properties.load(input);
-			input.close();
-		} catch (FileNotFoundException e) {
-			logger.warn(String.format("Could not find the file \"%s\"", file));
-		} catch (IOException e) {
-			logger.warn(
-					String.format("Could not load keyvalue store from file \"%s\", reason:%s", file, e.getMessage()));
+		synchronized (this) {
+			if (batch != null && batch.containsKey(name)) {
+				return batch.get(name);
+			}
 		}
-
-		return properties;
+		return log.get(name);
 	}
 
 	/**
@@ -76,18 +76,64 @@ public class SampleStore {
 	 *            Value for the parameter
 	 */
 	public void setValue(String name, String value) {
-		Properties properties = loadProperties();
-		try (OutputStream output = new FileOutputStream(file)) {
-			properties.setProperty(name, value);
-			properties.store(output, "");
-			output.close();
-
+		synchronized (this) {
+			if (batch != null) {
+				batch.put(name, value);
+				return;
+			}
+		}
+		try {
+			log.put(name, value);
 		} catch (IOException e) {
-			logger.warn(String.format("Could not save the keyvalue store, reason:%s", e.getMessage()));
+			logger.warn(String.format("Could not save the keyvalue store \"%s\", reason:%s", file, e.getMessage()));
+		}
+	}
+
+	/**
+	 * Get a counter of the changes to the file, including changes by other
+	 * processes. Values read while it stays the same belong together.
+	 *
+	 * @return generation of the values
+	 */
+	public long getGeneration() {
+		return log.getGeneration();
+	}
+
+	/**
+	 * Keep the values set from now on in memory until
+	 * {@link #commitBatch()}. They are visible to this store only.
+	 */
+	public synchronized void beginBatch() {
+		if (batch == null) {
+			batch = new LinkedHashMap<>();
 		}
 	}
 
-	private final Map<String, SampleUser> members = new HashMap<>();
+	/**
+	 * Write the values set since {@link #beginBatch()} with a single append
+	 * and stop batching.
+	 *
+	 * @return number of values written
+	 * @throws IOException
+	 *             if the values could not be written, they stay in the batch
+	 */
+	public synchronized int commitBatch() throws IOException {
+		if (batch == null) {
+			return 0;
+		}
+		log.putAll(batch);
+		int size = batch.size();
+		batch = null;
+		return size;
+	}
+
+	/**
+	 * Record the state a user saved, keeping it cached.
+	 */
+	void saveMember(SampleUser sampleUser, String name, String value) {
+		setValue(name, value);
+		members.saved(name, sampleUser, value);
+	}
 
 	/**
 	 * Get the user with a given name
@@ -96,20 +142,43 @@ public class SampleStore {
 	 */
 	public SampleUser getMember(String name, String org) {
 
-		// Try to get the SampleUser state from the cache
-		SampleUser sampleUser = members.get(SampleUser.toKeyValStoreName(name, org));
+		// While the store is unchanged, a user found current is still current
+		String keyValStoreName = SampleUser.toKeyValStoreName(name, org);
+		long generation = getGeneration();
+		SampleUser sampleUser = members.getCurrent(keyValStoreName, generation);
 		if (null != sampleUser) {
 			return sampleUser;
 		}
 
-		// Create the SampleUser and try to restore it's state from the key
-		// value store (if found).
-		sampleUser = new SampleUser(name, org, this);
+		// Try to get the SampleUser state from the cache
+		sampleUser = members.get(keyValStoreName, getValue(keyValStoreName));
+		if (null == sampleUser) {
+			// Create the SampleUser and try to restore it's state from the key
+			// value store (if found).
+			sampleUser = new SampleUser(name, org, this);
+			members.put(keyValStoreName, sampleUser, getValue(keyValStoreName));
+		}
+		checked(keyValStoreName, sampleUser, generation);
 
 		return sampleUser;
 
 	}
 
+	/**
+	 * Remember that a user was current at a generation, if the values read
+	 * since the generation was taken all belong to it.
+	 */
+	private void checked(String keyValStoreName, SampleUser sampleUser, long generation) {
+		synchronized (this) {
+			if (batch != null) {
+				return; // values of the batch are not counted by the generation
+			}
+		}
+		if (getGeneration() == generation) {
+			members.checked(keyValStoreName, sampleUser, generation);
+		}
+	}
+
 	/**
 	 * Get the user with a given name
 	 *
@@ -119,25 +188,40 @@ public class SampleStore {
 			throws IOException, NoSuchAlgorithmException, NoSuchProviderException, InvalidKeySpecException {
 
 		try {
-			// Try to get the SampleUser state from the cache
-			SampleUser sampleUser = members.get(SampleUser.toKeyValStoreName(name, org));
-			if (null != sampleUser) {
+			// Try to get the SampleUser state from the cache, valid as long as
+			// neither the store entry nor the crypto files changed. The files
+			// are looked at again only every few seconds.
+			String keyValStoreName = SampleUser.toKeyValStoreName(name, org);
+			FileStamp privateKeyStamp = FileStamp.recent(privateKeyFile);
+			FileStamp certificateStamp = FileStamp.recent(certificateFile);
+			long generation = getGeneration();
+			SampleUser sampleUser = members.getCurrent(keyValStoreName, generation, privateKeyStamp,
+					certificateStamp);
+			if (null != sampleUser && MSPID.equals(sampleUser.getMspId())) {
+				return sampleUser;
+			}
+			sampleUser = members.get(keyValStoreName, getValue(keyValStoreName), privateKeyStamp,
+					certificateStamp);
+			if (null != sampleUser && MSPID.equals(sampleUser.getMspId())) {
+				checked(keyValStoreName, sampleUser, generation);
 				return sampleUser;
 			}
 
 			// Create the SampleUser and try to restore it's state from the key
 			// value store (if found).
 			sampleUser = new SampleUser(name, org, this);
-			sampleUser.setMspId(MSPID);
 
-			String certificate = new String(IOUtils.toByteArray(new FileInputStream(certificateFile)), "UTF-8");
+			String certificate = CryptoFileCache.getCertificate(certificateFile);
 
 			// PrivateKey privateKey = getPrivateKeyFromFile(privateKeyFile);
-			PrivateKey privateKey = getPrivateKeyFromBytes(IOUtils.toByteArray(new FileInputStream(privateKeyFile)));
+			PrivateKey privateKey = CryptoFileCache.getPrivateKey(privateKeyFile);
 
-			sampleUser.setEnrollment(new SampleStoreEnrollement(privateKey, certificate));
+			// Set the fields directly to save the state once, not per setter
+			sampleUser.mspId = MSPID;
+			sampleUser.enrollment = new SampleStoreEnrollement(privateKey, certificate);
 
 			sampleUser.saveState();
+			members.put(keyValStoreName, sampleUser, getValue(keyValStoreName), privateKeyStamp, certificateStamp);
 
 			return sampleUser;
 		} catch (IOException e) {
@@ -185,6 +269,9 @@ public class SampleStore {
 		private PrivateKey privateKey;
 		// private transient PrivateKey privateKey;
 		private final String certificate;
+		// Encoded form of the key, decoded on first use
+		private transient String keyAlgorithm;
+		private transient byte[] encodedKey;
 
 		SampleStoreEnrollement(PrivateKey privateKey, String certificate) {
 
@@ -193,9 +280,24 @@ public class SampleStore {
 			this.privateKey = privateKey;
 		}
 
-		@Override
-		public PrivateKey getKey() {
+		SampleStoreEnrollement(String keyAlgorithm, byte[] encodedKey, String certificate) {
+
+			this.certificate = certificate;
+
+			this.keyAlgorithm = keyAlgorithm;
+			this.encodedKey = encodedKey;
+		}
 
+		@Override
+		public synchronized PrivateKey getKey() {
+
+			if (privateKey == null && encodedKey != null) {
+				try {
+					privateKey = KeyFactory.getInstance(keyAlgorithm).generatePrivate(new PKCS8EncodedKeySpec(encodedKey));
+				} catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+					throw new IllegalStateException("Could not decode " + keyAlgorithm + " private key", e);
+				}
+			}
 			return privateKey;
 		}
 
@@ -204,6 +306,14 @@ public class SampleStore {
 			return certificate;
 		}
 
+		synchronized String getKeyAlgorithm() {
+			return privateKey != null ? privateKey.getAlgorithm() : keyAlgorithm;
+		}
+
+		synchronized byte[] getEncodedKey() {
+			return privateKey != null ? privateKey.getEncoded() : encodedKey;
+		}
+
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,454 @@
+package com.cs.fabric.sdkintegration;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Append-only storage behind {@link SampleStore}, shared by all processes
+ * using the same file.
+ *
+ * The file stays in properties format: every change appends one
+ * <i>name=value</i> line and a later line overrides an earlier one, as it
+ * does for {@link Properties#load(java.io.InputStream)}. Reads are served from
+ * an in-memory index. Once most lines are overridden, the file is rewritten in
+ * the background with one line per name and atomically moved over the old
+ * one.
+ *
+ * Writers hold an exclusive lock on the file. Under the lock they first apply
+ * what other processes appended and cut off a partial last line left by a
+ * crashed writer, then append and force their lines to disk. Compaction holds
+ * the lock of the old file until the new one is in place, and a process that
+ * finds the file replaced (or shrunk) reloads it.
+ *
+ * Readers take no lock. A {@link WatchService} marks the index stale when the
+ * file changes, and the next read applies only the complete lines appended
+ * since. The generation counts the changes applied to the index, like a
+ * seqlock: it is odd while a change is applied and even once it is complete.
+ * Values read while {@link #getGeneration()} returns the same value before
+ * and after belong to one state, so state derived from them can be checked
+ * without a lock.
+ *
+ * There is one instance per file, shared by all stores of the process.
+ */
+final class SampleStoreLog {
+
+	private static final int COMPACT_MIN_RECORDS = 1000;
+
+	private static final Log logger = LogFactory.getLog(SampleStoreLog.class);
+	private static final ConcurrentMap<Path, SampleStoreLog> logs = new ConcurrentHashMap<>();
+	private static final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "sample-store-compactor");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final Path path;
+	private volatile Map<String, String> index = new ConcurrentHashMap<>();
+	private volatile boolean stale;
+	private volatile long generation;
+	private FileChannel channel;
+	private Object fileKey;
+	private long offset;
+	private long records;
+	private boolean compactionScheduled;
+
+	private SampleStoreLog(Path path) {
+		this.path = path;
+		Watcher.watch(this);
+		synchronized (this) {
+			reload();
+		}
+	}
+
+	/**
+	 * @param file
+	 * @return the log of the file
+	 */
+	static SampleStoreLog open(String file) {
+		return logs.computeIfAbsent(Paths.get(file).toAbsolutePath().normalize(), SampleStoreLog::new);
+	}
+
+	String get(String name) {
+		if (stale) {
+			refresh();
+		}
+		return index.get(name);
+	}
+
+	/**
+	 * @return number of changes applied to the index so far, by this or other
+	 *         processes, times two. Waits for a change being applied.
+	 */
+	long getGeneration() {
+		if (stale) {
+			refresh();
+		}
+		long current;
+		while (((current = generation) & 1) != 0) {
+			Thread.yield();
+		}
+		return current;
+	}
+
+	/**
+	 * Append a value and force it to disk.
+	 *
+	 * @param name
+	 * @param value
+	 * @throws IOException
+	 */
+	void put(String name, String value) throws IOException {
+		putAll(Collections.singletonMap(name, value));
+	}
+
+	/**
+	 * Append several values with one write and force them to disk together.
+	 *
+	 * @param values
+	 *            values by name
+	 * @throws IOException
+	 */
+	synchronized void putAll(Map<String, String> values) throws IOException {
+		while (true) {
+			FileChannel out = channel(true);
+			try (FileLock lock = out.lock()) {
+				if (!isCurrent()) {
+					continue; // replaced by another process, reloaded below
+				}
+				long size = catchUp();
+				if (size > offset) {
+					logger.warn(String.format("Discarding %d bytes of an incomplete record at the end of \"%s\"",
+							size - offset, path));
+					out.truncate(offset);
+				}
+
+				ByteArrayOutputStream changes = new ByteArrayOutputStream();
+				int changed = 0;
+				for (Map.Entry<String, String> entry : values.entrySet()) {
+					if (!entry.getValue().equals(index.get(entry.getKey()))) {
+						changes.write(encode(entry.getKey(), entry.getValue()));
+						changed++;
+					}
+				}
+				if (changed == 0) {
+					return; // nothing changed, nothing to write
+				}
+
+				ByteBuffer buffer = ByteBuffer.wrap(changes.toByteArray());
+				long position = offset;
+				while (buffer.hasRemaining()) {
+					position += out.write(buffer, position);
+				}
+				out.force(false);
+				beginChange();
+				try {
+					index.putAll(values);
+				} finally {
+					endChange();
+				}
+				offset = position;
+				records += changed;
+				break;
+			} finally {
+				if (!isCurrent()) {
+					reload();
+				}
+			}
+		}
+
+		if (!compactionScheduled && records > COMPACT_MIN_RECORDS && records > 2 * index.size()) {
+			compactionScheduled = true;
+			compactor.execute(this::compact);
+		}
+	}
+
+	/**
+	 * Apply the changes made since the last read.
+	 */
+	private synchronized void refresh() {
+		stale = false;
+		try {
+			if (isCurrent()) {
+				catchUp();
+			} else {
+				reload();
+			}
+		} catch (IOException e) {
+			logger.warn(String.format("Could not refresh keyvalue store from file \"%s\", reason:%s", path,
+					e.getMessage()));
+		}
+	}
+
+	/**
+	 * Read the whole file into a new index, replacing the current one at once.
+	 */
+	private void reload() {
+		closeChannel();
+		offset = 0;
+		records = 0;
+		Map<String, String> loaded = new ConcurrentHashMap<>();
+		try {
+			if (channel(false) != null) {
+				readInto(loaded);
+			} else {
+				logger.warn(String.format("Could not find the file \"%s\"", path));
+			}
+		} catch (IOException e) {
+			logger.warn(
+					String.format("Could not load keyvalue store from file \"%s\", reason:%s", path, e.getMessage()));
+		}
+		beginChange();
+		index = loaded;
+		endChange();
+	}
+
+	/**
+	 * Apply the complete lines appended after the offset.
+	 *
+	 * @return size of the file
+	 */
+	private long catchUp() throws IOException {
+		if (channel(false) == null) {
+			return 0;
+		}
+		Map<String, String> appended = new HashMap<>();
+		long size = readInto(appended);
+		if (!appended.isEmpty()) {
+			beginChange();
+			try {
+				index.putAll(appended);
+			} finally {
+				endChange();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Make the generation odd until {@link #endChange()}. Called with the
+	 * monitor held, so the increments do not race.
+	 */
+	private void beginChange() {
+		generation++;
+	}
+
+	private void endChange() {
+		generation++;
+	}
+
+	/**
+	 * Parse the complete lines after the offset into the index and move the
+	 * offset past them. A last line without a newline is still being written,
+	 * or was torn by a crash; it is left for later.
+	 *
+	 * @return size of the file
+	 */
+	private long readInto(Map<String, String> target) throws IOException {
+		long size = channel.size();
+		if (size <= offset) {
+			return size;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate((int) (size - offset));
+		while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) >= 0) {
+		}
+		byte[] data = buffer.array();
+		int length = buffer.position();
+		while (length > 0 && data[length - 1] != '\n') {
+			length--;
+		}
+
+		Properties properties = new Properties();
+		properties.load(new ByteArrayInputStream(data, 0, length));
+		for (String name : properties.stringPropertyNames()) {
+			target.put(name, properties.getProperty(name));
+		}
+		for (int i = 0; i < length; i++) {
+			if (data[i] == '\n') {
+				records++;
+			}
+		}
+		offset += length;
+		return size;
+	}
+
+	/**
+	 * @return true if the open channel is still the file at the path, with
+	 *         nothing read from it removed. Always true where the file system
+	 *         has no file keys and the file was not shrunk.
+	 */
+	private boolean isCurrent() {
+		Object current;
+		try {
+			current = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+			if (channel == null) {
+				return false;
+			}
+			return Objects.equals(current, fileKey) && channel.size() >= offset;
+		} catch (NoSuchFileException e) {
+			return channel == null;
+		} catch (IOException e) {
+			return true;
+		}
+	}
+
+	private FileChannel channel(boolean create) throws IOException {
+		if (channel == null) {
+			if (!create && !Files.exists(path)) {
+				return null;
+			}
+			channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+			fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+		}
+		return channel;
+	}
+
+	private void closeChannel() {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				logger.warn(String.format("Could not close \"%s\", reason:%s", path, e.getMessage()));
+			}
+			channel = null;
+			fileKey = null;
+		}
+	}
+
+	/**
+	 * Rewrite the file with the current value of every name. Appends of all
+	 * processes wait until the new file is in place.
+	 */
+	private synchronized void compact() {
+		compactionScheduled = false;
+		Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+		long before = records;
+		try {
+			FileChannel current = channel(true);
+			try (FileLock lock = current.lock()) {
+				if (!isCurrent()) {
+					return; // already compacted by another process
+				}
+				catchUp();
+				try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE,
+						StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+					for (Map.Entry<String, String> entry : index.entrySet()) {
+						ByteBuffer record = ByteBuffer.wrap(encode(entry.getKey(), entry.getValue()));
+						while (record.hasRemaining()) {
+							out.write(record);
+						}
+					}
+					out.force(true);
+				}
+				Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				logger.info(String.format("Compacted \"%s\" from %d to %d records", path, before, index.size()));
+			} finally {
+				if (!isCurrent()) {
+					reload();
+				}
+			}
+		} catch (IOException e) {
+			logger.warn(String.format("Could not compact keyvalue store \"%s\", reason:%s", path, e.getMessage()));
+		}
+	}
+
+	/**
+	 * @return one properties line holding the value, escaped as by
+	 *         {@link Properties#store(java.io.OutputStream, String)}
+	 */
+	private static byte[] encode(String name, String value) throws IOException {
+		Properties record = new Properties();
+		record.setProperty(name, value);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		record.store(out, null);
+		String text = new String(out.toByteArray(), ISO_8859_1);
+		// Drop the date comment written before the entry
+		return text.substring(text.indexOf('\n') + 1).getBytes(ISO_8859_1);
+	}
+
+	/**
+	 * Marks logs stale when their file changes, with one watch service and
+	 * thread for all of them.
+	 */
+	private static final class Watcher {
+
+		private static final ConcurrentMap<Path, SampleStoreLog> watched = new ConcurrentHashMap<>();
+		private static WatchService watchService;
+
+		static synchronized void watch(SampleStoreLog log) {
+			Path directory = log.path.getParent();
+			try {
+				if (watchService == null) {
+					watchService = FileSystems.getDefault().newWatchService();
+					Thread thread = new Thread(Watcher::run, "sample-store-watcher");
+					thread.setDaemon(true);
+					thread.start();
+				}
+				Files.createDirectories(directory);
+				directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+				watched.put(log.path, log);
+			} catch (IOException e) {
+				logger.warn(String.format(
+						"Could not watch \"%s\", changes by other processes are only read before writing, reason:%s",
+						log.path, e.getMessage()));
+			}
+		}
+
+		private static void run() {
+			try {
+				while (true) {
+					WatchKey key = watchService.take();
+					Path directory = (Path) key.watchable();
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+							for (SampleStoreLog log : watched.values()) {
+								log.stale = true;
+							}
+							continue;
+						}
+						SampleStoreLog log = watched.get(directory.resolve((Path) event.context()));
+						if (log != null) {
+							log.stale = true;
+						}
+					}
+					key.reset();
+				}
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				logger.debug("Stopped watching keyvalue stores");
+			}
+		}
+	}
+
+}
@@ -1,10 +1,8 @@
 package com.cs.fabric.sdkintegration;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.List;
 import java.util.Set;
@@ -19,12 +17,13 @@ public class SampleUser implements User, Serializable {
 
 
     //   private transient Chain chain;
-    private String name;
-    private Set<String> roles;
-    private String account;
-    private String affiliation;
-    private String organization;
-    private String enrollmentSecret;
+    // Package access for SampleUserCodec
+    String name;
+    Set<String> roles;
+    String account;
+    String affiliation;
+    String organization;
+    String enrollmentSecret;
     Enrollment enrollment = null; //need access in test env.
 
     private transient SampleStore keyValStore;
@@ -159,13 +158,8 @@ public class SampleUser implements User, Serializable {
      * Save the state of this user to the key value store.
      */
     void saveState() {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
         try {
-            ObjectOutputStream oos = new ObjectOutputStream(bos);
-            oos.writeObject(this);
-            oos.flush();
-            keyValStore.setValue(keyValStoreName, Hex.toHexString(bos.toByteArray()));
-            bos.close();
+            keyValStore.saveMember(this, keyValStoreName, SampleUserCodec.encode(this));
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -174,12 +168,21 @@ public class SampleUser implements User, Serializable {
 
     /**
      * Restore the state of this user from the key value store (if found).  If not found, do nothing.
+     * Reads both the binary format and the hex encoded Java serialization of earlier versions.
      */
     SampleUser restoreState() {
         String memberStr = keyValStore.getValue(keyValStoreName);
         if (null != memberStr) {
             // The user was found in the key value store, so restore the
             // state.
+            if (SampleUserCodec.isEncoded(memberStr)) {
+                try {
+                    SampleUserCodec.decode(memberStr, this);
+                    return this;
+                } catch (Exception e) {
+                    throw new RuntimeException(String.format("Could not restore state of member %s", this.name), e);
+                }
+            }
             byte[] serialized = Hex.decode(memberStr);
             ByteArrayInputStream bis = new ByteArrayInputStream(serialized);
             try {
@@ -0,0 +1,137 @@
+package com.cs.fabric.sdkintegration;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.PrivateKey;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.hyperledger.fabric.sdk.Enrollment;
+
+/**
+ * Compact binary form of the state of a {@link SampleUser}, stored in the key
+ * value store as <i>b1:</i> followed by the Base64 encoded bytes.
+ *
+ * Strings are length prefixed UTF-8, -1 meaning null. The private key is kept
+ * in its encoded form and only decoded when the enrollment is first used.
+ * Values without the prefix are hex encoded Java serialization written by
+ * earlier versions, see {@link SampleUser#restoreState()}.
+ */
+final class SampleUserCodec {
+
+    private static final String PREFIX = "b1:";
+    private static final byte VERSION = 1;
+
+    private SampleUserCodec() {
+    }
+
+    static boolean isEncoded(String value) {
+        return value.startsWith(PREFIX);
+    }
+
+    static String encode(SampleUser user) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(VERSION);
+        writeString(out, user.name);
+        writeString(out, user.account);
+        writeString(out, user.affiliation);
+        writeString(out, user.organization);
+        writeString(out, user.enrollmentSecret);
+        writeString(out, user.mspId);
+
+        Set<String> roles = user.roles;
+        out.writeInt(roles == null ? -1 : roles.size());
+        if (roles != null) {
+            for (String role : roles) {
+                writeString(out, role);
+            }
+        }
+
+        Enrollment enrollment = user.enrollment;
+        out.writeBoolean(enrollment != null);
+        if (enrollment != null) {
+            writeString(out, enrollment.getCert());
+            if (enrollment instanceof SampleStore.SampleStoreEnrollement) {
+                SampleStore.SampleStoreEnrollement stored = (SampleStore.SampleStoreEnrollement) enrollment;
+                writeString(out, stored.getKeyAlgorithm());
+                writeBytes(out, stored.getEncodedKey());
+            } else {
+                PrivateKey key = enrollment.getKey();
+                writeString(out, key == null ? null : key.getAlgorithm());
+                writeBytes(out, key == null ? null : key.getEncoded());
+            }
+        }
+        out.flush();
+        return PREFIX + Base64.getEncoder().encodeToString(bytes.toByteArray());
+    }
+
+    static void decode(String value, SampleUser user) throws IOException {
+        byte[] data = Base64.getDecoder().decode(value.substring(PREFIX.length()));
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported user state version " + version);
+        }
+        user.name = readString(in);
+        user.account = readString(in);
+        user.affiliation = readString(in);
+        user.organization = readString(in);
+        user.enrollmentSecret = readString(in);
+        user.mspId = readString(in);
+
+        int roleCount = in.readInt();
+        Set<String> roles = null;
+        if (roleCount >= 0) {
+            roles = new HashSet<>();
+            for (int i = 0; i < roleCount; i++) {
+                roles.add(readString(in));
+            }
+        }
+        user.roles = roles;
+
+        Enrollment enrollment = null;
+        if (in.readBoolean()) {
+            String certificate = readString(in);
+            String keyAlgorithm = readString(in);
+            byte[] encodedKey = readBytes(in);
+            enrollment = new SampleStore.SampleStoreEnrollement(keyAlgorithm, encodedKey, certificate);
+        }
+        user.enrollment = enrollment;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value == null ? null : value.getBytes(UTF_8));
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(value.length);
+            out.write(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] value = readBytes(in);
+        return value == null ? null : new String(value, UTF_8);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        in.readFully(value);
+        return value;
+    }
+
+}
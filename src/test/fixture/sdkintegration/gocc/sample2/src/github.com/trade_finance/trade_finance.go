@@ -15,17 +15,56 @@ Licensed Materials - Property of Chinasystems
 package main
 
 import (
+	"bytes"
+	"encoding/base64"
+	"encoding/binary"
 	"encoding/json"
 	"fmt"
+	"strconv"
 
 	"github.com/hyperledger/fabric/core/chaincode/shim"
 	pb "github.com/hyperledger/fabric/protos/peer"
 )
 
+// Maximum number of reference numbers per queryBatch call
+const maxBatchQuery = 1000
+
+// Maximum number of states per page of list and queryByStatus
+const maxPageSize = 1000
+
+// Maximum number of transitions per batch call
+const maxBatchTransitions = 500
+
+// Index entries are laid out like composite keys, but under their own
+// namespace instead of the composite key one: range queries reject composite
+// keys, and a page must resume from its bookmark with a range query. Simple
+// keys of states start after the index namespace.
+const (
+	indexNamespace  = "\x01"
+	firstStateKey   = "\x02"
+	maxUnicodeRune  = "\U0010FFFF"
+	statusIndex     = "status~reference"
+	statusBankIndex = "status~bank~reference"
+)
+
 // TradeFinanceChaincode example simple Chaincode implementation
 type TradeFinanceChaincode struct {
 }
 
+// Version byte of the binary encodings. Legacy states are JSON and start
+// with '{' instead.
+const encodingVersion = 1
+
+// Field tags of the binary state encoding
+const (
+	tagReference = iota + 1
+	tagExporter
+	tagShippingCorporation
+	tagNegotiationBank
+	tagImportBank
+	tagStatus
+)
+
 // TradeFinance Data
 type TradeFinance struct {
 	Reference           string `json:"reference"`
@@ -63,6 +102,27 @@ func (t *TradeFinanceChaincode) Invoke(stub shim.ChaincodeStubInterface) pb.Resp
 		return t.query(stub, args)
 	}
 
+	if args[0] == "queryBatch" {
+		return t.queryBatch(stub, args)
+	}
+
+	if args[0] == "batch" {
+		// Several transitions in one transaction
+		return t.batch(stub, args)
+	}
+
+	if args[0] == "list" {
+		return t.list(stub, args)
+	}
+
+	if args[0] == "queryByStatus" {
+		return t.queryByStatus(stub, args)
+	}
+
+	if args[0] == "reindex" {
+		return t.reindex(stub, args)
+	}
+
 	if args[0] == "delete" {
 		// Deletes an entity from its state
 		return t.delete(stub, args)
@@ -93,7 +153,7 @@ func (t *TradeFinanceChaincode) Invoke(stub shim.ChaincodeStubInterface) pb.Resp
 		return t.payment(stub, args)
   }
 
-	return shim.Error("Unknown action, check the first argument, must be one of 'delete', 'query', 'inspect', 'ship', 'present', 'arrival' or 'payment'")
+	return shim.Error("Unknown action, check the first argument, must be one of 'delete', 'query', 'queryBatch', 'list', 'queryByStatus', 'reindex', 'batch', 'inspect', 'ship', 'present', 'arrival' or 'payment'")
 
 }
 
@@ -115,12 +175,14 @@ func (t *TradeFinanceChaincode) inspect(stub shim.ChaincodeStubInterface, args [
 	tradeFinance.ImportBank = ""
 	tradeFinance.Status = "Inspection"
 
-	tradeFinanceBytes, err := json.Marshal(&tradeFinance)
+	// A state replaced by a new inspection leaves the index
+	tradeFinanceOld, err := getTradeFinance(stub, tradeFinance.Reference)
 	if err != nil {
-		fmt.Println("Error marshalling tradeFinance to json")
-		return shim.Error("Error Marshalling Inspection Data")
+		return shim.Error(err.Error())
 	}
-	err = stub.PutState(tradeFinance.Reference, tradeFinanceBytes)
+
+	tradeFinanceBytes := encodeTradeFinance(&tradeFinance)
+	err = putTradeFinance(stub, tradeFinanceOld, &tradeFinance, tradeFinanceBytes)
 	if err != nil {
 		fmt.Println("Error saving inspection data")
 		return shim.Error("Error saving inspection data")
@@ -154,7 +216,7 @@ func (t *TradeFinanceChaincode) ship(stub shim.ChaincodeStubInterface, args []st
 		return shim.Error("Failed retrieving transaction on reference number " + tradeFinance.Reference)
 	}
 
-	err = json.Unmarshal(tradeFinanceBytes, &tradeFinanceOld)
+	err = decodeTradeFinance(tradeFinanceBytes, &tradeFinanceOld)
 	if err != nil {
 		fmt.Println("Error Unmarshalling tradeFinanceBytes")
 		return shim.Error("Error unmarshalling transaction on reference number " + tradeFinance.Reference)
@@ -171,13 +233,9 @@ func (t *TradeFinanceChaincode) ship(stub shim.ChaincodeStubInterface, args []st
 	tradeFinance.ImportBank = tradeFinanceOld.ImportBank
 	tradeFinance.Status = "B/L"
 
-	tradeFinanceBytesNew, err := json.Marshal(&tradeFinance)
-	if err != nil {
-		fmt.Println("Error marshalling tradeFinance")
-		return shim.Error("Error marshalling tradeFinance")
-	}
+	tradeFinanceBytesNew := encodeTradeFinance(&tradeFinance)
 
-	err = stub.PutState(tradeFinance.Reference, tradeFinanceBytesNew)
+	err = putTradeFinance(stub, &tradeFinanceOld, &tradeFinance, tradeFinanceBytesNew)
 	if err != nil {
 		fmt.Println("Error saving B/L status")
 		return shim.Error("Error saving B/L status")
@@ -212,7 +270,7 @@ func (t *TradeFinanceChaincode) present(stub shim.ChaincodeStubInterface, args [
 		return shim.Error("Failed retrieving transaction on reference number " + tradeFinance.Reference)
 	}
 
-	err = json.Unmarshal(tradeFinanceBytes, &tradeFinanceOld)
+	err = decodeTradeFinance(tradeFinanceBytes, &tradeFinanceOld)
 	if err != nil {
 		fmt.Println("Error Unmarshalling tradeFinanceBytes")
 		return shim.Error("Error unmarshalling transaction on reference number " + tradeFinance.Reference)
@@ -228,13 +286,9 @@ func (t *TradeFinanceChaincode) present(stub shim.ChaincodeStubInterface, args [
 	tradeFinance.ImportBank = tradeFinanceOld.ImportBank
 	tradeFinance.Status = "Present Documents"
 
-	tradeFinanceBytesNew, err := json.Marshal(&tradeFinance)
-	if err != nil {
-		fmt.Println("Error marshalling tradeFinance")
-		return shim.Error("Error marshalling tradeFinance")
-	}
+	tradeFinanceBytesNew := encodeTradeFinance(&tradeFinance)
 
-	err = stub.PutState(tradeFinance.Reference, tradeFinanceBytesNew)
+	err = putTradeFinance(stub, &tradeFinanceOld, &tradeFinance, tradeFinanceBytesNew)
 	if err != nil {
 		fmt.Println("Error saving Present Documents status")
 		return shim.Error("Error saving Present Documents status")
@@ -269,7 +323,7 @@ func (t *TradeFinanceChaincode) arrival(stub shim.ChaincodeStubInterface, args [
 		return shim.Error("Failed retrieving transaction on reference number " + tradeFinance.Reference)
 	}
 
-	err = json.Unmarshal(tradeFinanceBytes, &tradeFinanceOld)
+	err = decodeTradeFinance(tradeFinanceBytes, &tradeFinanceOld)
 	if err != nil {
 		fmt.Println("Error Unmarshalling tradeFinanceBytes")
 		return shim.Error("Error unmarshalling transaction on reference number " + tradeFinance.Reference)
@@ -285,13 +339,9 @@ func (t *TradeFinanceChaincode) arrival(stub shim.ChaincodeStubInterface, args [
 	tradeFinance.NegotiationBank = tradeFinanceOld.NegotiationBank
 	tradeFinance.Status = "Documents Arrival"
 
-	tradeFinanceBytesNew, err := json.Marshal(&tradeFinance)
-	if err != nil {
-		fmt.Println("Error marshalling tradeFinance")
-		return shim.Error("Error marshalling tradeFinance")
-	}
+	tradeFinanceBytesNew := encodeTradeFinance(&tradeFinance)
 
-	err = stub.PutState(tradeFinance.Reference, tradeFinanceBytesNew)
+	err = putTradeFinance(stub, &tradeFinanceOld, &tradeFinance, tradeFinanceBytesNew)
 	if err != nil {
 		fmt.Println("Error saving Documents Arrival status")
 		return shim.Error("Error saving Documents Arrival status")
@@ -325,7 +375,7 @@ func (t *TradeFinanceChaincode) payment(stub shim.ChaincodeStubInterface, args [
 		return shim.Error("Failed retrieving transaction on reference number " + tradeFinance.Reference)
 	}
 
-	err = json.Unmarshal(tradeFinanceBytes, &tradeFinanceOld)
+	err = decodeTradeFinance(tradeFinanceBytes, &tradeFinanceOld)
 	if err != nil {
 		fmt.Println("Error Unmarshalling tradeFinanceBytes")
 		return shim.Error("Error unmarshalling transaction on reference number " + tradeFinance.Reference)
@@ -342,13 +392,9 @@ func (t *TradeFinanceChaincode) payment(stub shim.ChaincodeStubInterface, args [
 	tradeFinance.ImportBank = tradeFinanceOld.ImportBank
 	tradeFinance.Status = "Payment"
 
-	tradeFinanceBytesNew, err := json.Marshal(&tradeFinance)
-	if err != nil {
-		fmt.Println("Error marshalling tradeFinance")
-		return shim.Error("Error marshalling tradeFinance")
-	}
+	tradeFinanceBytesNew := encodeTradeFinance(&tradeFinance)
 
-	err = stub.PutState(tradeFinance.Reference, tradeFinanceBytesNew)
+	err = putTradeFinance(stub, &tradeFinanceOld, &tradeFinance, tradeFinanceBytesNew)
 	if err != nil {
 		fmt.Println("Error saving Payment status")
 		return shim.Error("Error saving Payment status")
@@ -370,12 +416,23 @@ func (t *TradeFinanceChaincode) delete(stub shim.ChaincodeStubInterface, args []
 
 	Ref := args[1]
 
+	tradeFinanceOld, err := getTradeFinance(stub, Ref)
+	if err != nil {
+		return shim.Error(err.Error())
+	}
+
 	// Delete the key from the state in ledger
-	err := stub.DelState(Ref)
+	err = stub.DelState(Ref)
 	if err != nil {
 		return shim.Error("Failed to delete state")
 	}
 
+	// And its index entries
+	err = putTradeFinance(stub, tradeFinanceOld, nil, nil)
+	if err != nil {
+		return shim.Error("Failed to delete index entries")
+	}
+
 	return shim.Success(nil)
 }
 
@@ -402,6 +459,442 @@ func (t *TradeFinanceChaincode) query(stub shim.ChaincodeStubInterface, args []s
 	return shim.Success(TradeFinanceBytes)
 }
 
+// Query the states of many reference numbers at once. Returns the version
+// byte followed by the length prefixed stored state of each reference
+// number, in the order given, with length 0 for those not found.
+func (t *TradeFinanceChaincode) queryBatch(stub shim.ChaincodeStubInterface, args []string) pb.Response {
+
+	refs := args[1:]
+	if len(refs) > maxBatchQuery {
+		return shim.Error("Too many reference numbers, expecting at most " + strconv.Itoa(maxBatchQuery))
+	}
+
+	var buffer bytes.Buffer
+	buffer.WriteByte(encodingVersion)
+	for _, ref := range refs {
+		tradeFinanceBytes, err := stub.GetState(ref)
+		if err != nil {
+			return shim.Error("Failed to query state of reference number " + ref)
+		}
+		// Stored states are copied as they are, binary or legacy JSON
+		writeEntry(&buffer, tradeFinanceBytes)
+	}
+
+	return shim.Success(buffer.Bytes())
+}
+
+// batchStub lets each transition of a batch read the states written by the
+// transitions before it, which GetState only returns once the transaction is
+// committed. Writes still go to the transaction, the last write of a key wins.
+type batchStub struct {
+	shim.ChaincodeStubInterface
+	written map[string][]byte
+}
+
+func (b *batchStub) GetState(key string) ([]byte, error) {
+	if value, ok := b.written[key]; ok {
+		return value, nil
+	}
+	return b.ChaincodeStubInterface.GetState(key)
+}
+
+func (b *batchStub) PutState(key string, value []byte) error {
+	if err := b.ChaincodeStubInterface.PutState(key, value); err != nil {
+		return err
+	}
+	b.written[key] = value
+	return nil
+}
+
+func (b *batchStub) DelState(key string) error {
+	if err := b.ChaincodeStubInterface.DelState(key); err != nil {
+		return err
+	}
+	b.written[key] = nil
+	return nil
+}
+
+// Apply an ordered list of transitions in one transaction. The argument is a
+// JSON array of the arguments of each transition, e.g.
+// [["ship","IMLC-000001"],["present","IMLC-000002","Bank of China"]].
+// Each transition is checked like on its own, later ones see the states
+// written by earlier ones. If any transition fails, the whole batch fails.
+func (t *TradeFinanceChaincode) batch(stub shim.ChaincodeStubInterface, args []string) pb.Response {
+
+	if len(args) != 2 {
+		return shim.Error("Incorrect number of arguments. Expecting 2, function followed by the JSON array of transitions")
+	}
+
+	var transitions [][]string
+	if err := json.Unmarshal([]byte(args[1]), &transitions); err != nil {
+		return shim.Error("Error unmarshalling transitions: " + err.Error())
+	}
+	if len(transitions) > maxBatchTransitions {
+		return shim.Error("Too many transitions, expecting at most " + strconv.Itoa(maxBatchTransitions))
+	}
+
+	batchStub := &batchStub{ChaincodeStubInterface: stub, written: map[string][]byte{}}
+	for i, transition := range transitions {
+		if len(transition) < 2 {
+			return shim.Error(fmt.Sprintf("Transition %d: expecting at least an action and a reference number", i))
+		}
+		var response pb.Response
+		switch transition[0] {
+		case "inspect":
+			response = t.inspect(batchStub, transition)
+		case "ship":
+			response = t.ship(batchStub, transition)
+		case "present":
+			response = t.present(batchStub, transition)
+		case "arrival":
+			response = t.arrival(batchStub, transition)
+		case "payment":
+			response = t.payment(batchStub, transition)
+		default:
+			return shim.Error(fmt.Sprintf("Transition %d: unknown action %s, must be one of 'inspect', 'ship', 'present', 'arrival' or 'payment'", i, transition[0]))
+		}
+		if response.Status != shim.OK {
+			return shim.Error(fmt.Sprintf("Transition %d (%s %s): %s", i, transition[0], transition[1], response.Message))
+		}
+	}
+
+	return shim.Success([]byte(strconv.Itoa(len(transitions))))
+}
+
+// List the states in a range of reference numbers, a page at a time.
+// Arguments: page size, optionally followed by the bookmark returned with the
+// previous page, the first reference number and the reference number to stop
+// before. Returns the version byte, the length prefixed states, length 0 and
+// the bookmark; the bookmark is empty after the last page.
+func (t *TradeFinanceChaincode) list(stub shim.ChaincodeStubInterface, args []string) pb.Response {
+
+	if len(args) < 2 || len(args) > 5 {
+		return shim.Error("Incorrect number of arguments. Expecting 2 to 5, function followed by page size, bookmark, start and end reference number")
+	}
+	pageSize, err := parsePageSize(args[1])
+	if err != nil {
+		return shim.Error(err.Error())
+	}
+	startKey, endKey := firstStateKey, ""
+	if len(args) > 3 && args[3] > startKey {
+		startKey = args[3]
+	}
+	if len(args) > 4 {
+		endKey = args[4]
+	}
+	if len(args) > 2 && args[2] != "" {
+		if startKey, err = parseBookmark(args[2]); err != nil {
+			return shim.Error(err.Error())
+		}
+	}
+
+	iterator, err := stub.GetStateByRange(startKey, endKey)
+	if err != nil {
+		return shim.Error("Failed to list states: " + err.Error())
+	}
+	defer iterator.Close()
+
+	return page(iterator, pageSize, func(key string, value []byte) ([]byte, error) {
+		return value, nil
+	})
+}
+
+// List the states with a status, optionally only those with a given
+// negotiation or import bank, a page at a time.
+// Arguments: status, bank or "", page size and optionally the bookmark
+// returned with the previous page. Returns the same as list.
+func (t *TradeFinanceChaincode) queryByStatus(stub shim.ChaincodeStubInterface, args []string) pb.Response {
+
+	if len(args) < 4 || len(args) > 5 {
+		return shim.Error("Incorrect number of arguments. Expecting 4 or 5, function followed by status, bank, page size and bookmark")
+	}
+	pageSize, err := parsePageSize(args[3])
+	if err != nil {
+		return shim.Error(err.Error())
+	}
+
+	var prefix string
+	if args[2] == "" {
+		prefix, err = indexKey(stub, statusIndex, []string{args[1]})
+	} else {
+		prefix, err = indexKey(stub, statusBankIndex, []string{args[1], args[2]})
+	}
+	if err != nil {
+		return shim.Error(err.Error())
+	}
+	startKey := prefix
+	if len(args) > 4 && args[4] != "" {
+		if startKey, err = parseBookmark(args[4]); err != nil {
+			return shim.Error(err.Error())
+		}
+	}
+
+	iterator, err := stub.GetStateByRange(startKey, prefix+maxUnicodeRune)
+	if err != nil {
+		return shim.Error("Failed to query index: " + err.Error())
+	}
+	defer iterator.Close()
+
+	return page(iterator, pageSize, func(key string, value []byte) ([]byte, error) {
+		_, attributes, err := stub.SplitCompositeKey(key)
+		if err != nil {
+			return nil, err
+		}
+		return stub.GetState(attributes[len(attributes)-1])
+	})
+}
+
+// Write the index entries of states stored before the index existed and
+// rewrite legacy JSON states in the binary encoding, a page at a time.
+// Arguments: page size and optionally the bookmark returned with the
+// previous page. Returns the bookmark of the next page, empty after the last
+// one.
+func (t *TradeFinanceChaincode) reindex(stub shim.ChaincodeStubInterface, args []string) pb.Response {
+
+	if len(args) < 2 || len(args) > 3 {
+		return shim.Error("Incorrect number of arguments. Expecting 2 or 3, function followed by page size and bookmark")
+	}
+	pageSize, err := parsePageSize(args[1])
+	if err != nil {
+		return shim.Error(err.Error())
+	}
+	startKey := firstStateKey
+	if len(args) > 2 && args[2] != "" {
+		if startKey, err = parseBookmark(args[2]); err != nil {
+			return shim.Error(err.Error())
+		}
+	}
+
+	iterator, err := stub.GetStateByRange(startKey, "")
+	if err != nil {
+		return shim.Error("Failed to list states: " + err.Error())
+	}
+	defer iterator.Close()
+
+	for count := 0; iterator.HasNext(); count++ {
+		entry, err := iterator.Next()
+		if err != nil {
+			return shim.Error("Failed to list states: " + err.Error())
+		}
+		if count == pageSize {
+			return shim.Success([]byte(base64.StdEncoding.EncodeToString([]byte(entry.Key))))
+		}
+		var tradeFinance TradeFinance
+		if err := decodeTradeFinance(entry.Value, &tradeFinance); err != nil {
+			fmt.Println("Skipping state " + entry.Key + " that is not a letter of credit")
+			continue
+		}
+		if len(entry.Value) > 0 && entry.Value[0] != encodingVersion {
+			if err := stub.PutState(entry.Key, encodeTradeFinance(&tradeFinance)); err != nil {
+				return shim.Error("Failed to rewrite " + entry.Key + ": " + err.Error())
+			}
+		}
+		if err := putIndex(stub, nil, &tradeFinance); err != nil {
+			return shim.Error("Failed to index " + entry.Key + ": " + err.Error())
+		}
+	}
+	return shim.Success([]byte(""))
+}
+
+// Read a page of at most pageSize entries from the iterator. The value of
+// each entry is mapped to a state, entries mapped to nil are skipped.
+func page(iterator shim.StateQueryIteratorInterface, pageSize int, state func(key string, value []byte) ([]byte, error)) pb.Response {
+
+	var buffer bytes.Buffer
+	buffer.WriteByte(encodingVersion)
+	bookmark := ""
+	for count := 0; iterator.HasNext(); {
+		entry, err := iterator.Next()
+		if err != nil {
+			return shim.Error("Failed to read page: " + err.Error())
+		}
+		if count == pageSize {
+			// The first entry of the next page
+			bookmark = base64.StdEncoding.EncodeToString([]byte(entry.Key))
+			break
+		}
+		stateBytes, err := state(entry.Key, entry.Value)
+		if err != nil {
+			return shim.Error("Failed to read page: " + err.Error())
+		}
+		if len(stateBytes) == 0 {
+			continue
+		}
+		writeEntry(&buffer, stateBytes)
+		count++
+	}
+	writeEntry(&buffer, nil)
+	buffer.WriteString(bookmark)
+
+	return shim.Success(buffer.Bytes())
+}
+
+// Encode a state: the version byte, then the tag, length and UTF-8 bytes of
+// each non empty field.
+func encodeTradeFinance(tradeFinance *TradeFinance) []byte {
+	var buffer bytes.Buffer
+	buffer.WriteByte(encodingVersion)
+	writeField(&buffer, tagReference, tradeFinance.Reference)
+	writeField(&buffer, tagExporter, tradeFinance.Exporter)
+	writeField(&buffer, tagShippingCorporation, tradeFinance.ShippingCorporation)
+	writeField(&buffer, tagNegotiationBank, tradeFinance.NegotiationBank)
+	writeField(&buffer, tagImportBank, tradeFinance.ImportBank)
+	writeField(&buffer, tagStatus, tradeFinance.Status)
+	return buffer.Bytes()
+}
+
+func writeField(buffer *bytes.Buffer, tag byte, value string) {
+	if value == "" {
+		return
+	}
+	buffer.WriteByte(tag)
+	writeEntry(buffer, []byte(value))
+}
+
+// Write a uvarint length followed by the data
+func writeEntry(buffer *bytes.Buffer, data []byte) {
+	var length [binary.MaxVarintLen64]byte
+	buffer.Write(length[:binary.PutUvarint(length[:], uint64(len(data)))])
+	buffer.Write(data)
+}
+
+// Decode a state in the binary encoding or legacy JSON. Unknown field tags
+// are skipped.
+func decodeTradeFinance(data []byte, tradeFinance *TradeFinance) error {
+	if len(data) == 0 || data[0] != encodingVersion {
+		return json.Unmarshal(data, tradeFinance)
+	}
+	for i := 1; i < len(data); {
+		tag := data[i]
+		length, n := binary.Uvarint(data[i+1:])
+		if n <= 0 || uint64(len(data)-i-1-n) < length {
+			return fmt.Errorf("Truncated field %d in state", tag)
+		}
+		start := i + 1 + n
+		value := string(data[start : start+int(length)])
+		i = start + int(length)
+		switch tag {
+		case tagReference:
+			tradeFinance.Reference = value
+		case tagExporter:
+			tradeFinance.Exporter = value
+		case tagShippingCorporation:
+			tradeFinance.ShippingCorporation = value
+		case tagNegotiationBank:
+			tradeFinance.NegotiationBank = value
+		case tagImportBank:
+			tradeFinance.ImportBank = value
+		case tagStatus:
+			tradeFinance.Status = value
+		}
+	}
+	return nil
+}
+
+func parsePageSize(arg string) (int, error) {
+	pageSize, err := strconv.Atoi(arg)
+	if err != nil || pageSize < 1 || pageSize > maxPageSize {
+		return 0, fmt.Errorf("Page size must be between 1 and %d but was %s", maxPageSize, arg)
+	}
+	return pageSize, nil
+}
+
+func parseBookmark(bookmark string) (string, error) {
+	key, err := base64.StdEncoding.DecodeString(bookmark)
+	if err != nil {
+		return "", fmt.Errorf("Invalid bookmark %s", bookmark)
+	}
+	return string(key), nil
+}
+
+// Read the state of a reference number, nil if there is none
+func getTradeFinance(stub shim.ChaincodeStubInterface, ref string) (*TradeFinance, error) {
+	tradeFinanceBytes, err := stub.GetState(ref)
+	if err != nil {
+		return nil, fmt.Errorf("Failed to get state of reference number %s", ref)
+	}
+	if tradeFinanceBytes == nil {
+		return nil, nil
+	}
+	var tradeFinance TradeFinance
+	if err := decodeTradeFinance(tradeFinanceBytes, &tradeFinance); err != nil {
+		return nil, fmt.Errorf("Error unmarshalling transaction on reference number %s", ref)
+	}
+	return &tradeFinance, nil
+}
+
+// Save the state of a letter of credit and move its index entries from the
+// old state, either of which may be nil
+func putTradeFinance(stub shim.ChaincodeStubInterface, old *TradeFinance, tradeFinance *TradeFinance, tradeFinanceBytes []byte) error {
+	if tradeFinance != nil {
+		if err := stub.PutState(tradeFinance.Reference, tradeFinanceBytes); err != nil {
+			return err
+		}
+	}
+	return putIndex(stub, old, tradeFinance)
+}
+
+func putIndex(stub shim.ChaincodeStubInterface, old *TradeFinance, tradeFinance *TradeFinance) error {
+	oldKeys, err := indexKeys(stub, old)
+	if err != nil {
+		return err
+	}
+	newKeys, err := indexKeys(stub, tradeFinance)
+	if err != nil {
+		return err
+	}
+	for key := range oldKeys {
+		if !newKeys[key] {
+			if err := stub.DelState(key); err != nil {
+				return err
+			}
+		}
+	}
+	for key := range newKeys {
+		if !oldKeys[key] {
+			// The key is all there is, but a nil value would delete it
+			if err := stub.PutState(key, []byte{0x00}); err != nil {
+				return err
+			}
+		}
+	}
+	return nil
+}
+
+// Index entries of a state: by status, and by status and bank for each of
+// its banks
+func indexKeys(stub shim.ChaincodeStubInterface, tradeFinance *TradeFinance) (map[string]bool, error) {
+	keys := map[string]bool{}
+	if tradeFinance == nil {
+		return keys, nil
+	}
+	key, err := indexKey(stub, statusIndex, []string{tradeFinance.Status, tradeFinance.Reference})
+	if err != nil {
+		return nil, err
+	}
+	keys[key] = true
+	for _, bank := range []string{tradeFinance.NegotiationBank, tradeFinance.ImportBank} {
+		if bank == "" {
+			continue
+		}
+		key, err := indexKey(stub, statusBankIndex, []string{tradeFinance.Status, bank, tradeFinance.Reference})
+		if err != nil {
+			return nil, err
+		}
+		keys[key] = true
+	}
+	return keys, nil
+}
+
+func indexKey(stub shim.ChaincodeStubInterface, index string, attributes []string) (string, error) {
+	key, err := stub.CreateCompositeKey(index, attributes)
+	if err != nil {
+		return "", err
+	}
+	// Replace the composite key namespace, see indexNamespace
+	return indexNamespace + key[1:], nil
+}
+
 func main() {
 	err := shim.Start(new(TradeFinanceChaincode))
 	if err != nil {
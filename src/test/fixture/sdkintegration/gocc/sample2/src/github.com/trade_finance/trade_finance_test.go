@@ -0,0 +1,103 @@
+package main
+
+import (
+	"bytes"
+	"encoding/hex"
+	"encoding/json"
+	"strings"
+	"testing"
+)
+
+// The vectors are also read by TradeFinanceReaderTest of the Java client,
+// keep both in step.
+const (
+	// IMLC-000001, exporter1, shipping1, bank1, bank2, SHIPPED
+	stateVector = "01010b494d4c432d30303030303102096578706f727465723103097368697070696e6731" +
+		"040562616e6b31050562616e6b32060753484950504544"
+	// IMLC-000002, status CREATED, the other fields empty
+	partialStateVector = "01010b494d4c432d303030303032060743524541544544"
+	// stateVector with field 7 "future" after the exporter
+	unknownTagStateVector = "01010b494d4c432d30303030303102096578706f72746572310706667574757265" +
+		"03097368697070696e6731040562616e6b31050562616e6b32060753484950504544"
+	// stateVector as json.Marshal wrote it before the binary encoding
+	legacyState = `{"reference":"IMLC-000001","exporter":"exporter1","shippingCorporation":"shipping1",` +
+		`"negotiationBank":"bank1","importBank":"bank2","status":"SHIPPED"}`
+)
+
+var shipped = TradeFinance{"IMLC-000001", "exporter1", "shipping1", "bank1", "bank2", "SHIPPED"}
+
+func decodeHex(t *testing.T, vector string) []byte {
+	data, err := hex.DecodeString(vector)
+	if err != nil {
+		t.Fatal(err)
+	}
+	return data
+}
+
+func TestEncodeTradeFinance(t *testing.T) {
+	if encoded := hex.EncodeToString(encodeTradeFinance(&shipped)); encoded != stateVector {
+		t.Errorf("Encoded %s, expecting %s", encoded, stateVector)
+	}
+	partial := TradeFinance{Reference: "IMLC-000002", Status: "CREATED"}
+	if encoded := hex.EncodeToString(encodeTradeFinance(&partial)); encoded != partialStateVector {
+		t.Errorf("Encoded %s, expecting %s", encoded, partialStateVector)
+	}
+}
+
+func TestEncodeLongField(t *testing.T) {
+	long := TradeFinance{Reference: strings.Repeat("x", 200)}
+	// 200 is the two byte uvarint c8 01
+	expected := "0101c801" + hex.EncodeToString([]byte(long.Reference))
+	if encoded := hex.EncodeToString(encodeTradeFinance(&long)); encoded != expected {
+		t.Errorf("Encoded %s, expecting %s", encoded, expected)
+	}
+}
+
+func TestLegacyState(t *testing.T) {
+	encoded, err := json.Marshal(&shipped)
+	if err != nil {
+		t.Fatal(err)
+	}
+	if string(encoded) != legacyState {
+		t.Errorf("Marshalled %s, expecting %s", encoded, legacyState)
+	}
+}
+
+func TestDecodeTradeFinance(t *testing.T) {
+	vectors := map[string][]byte{
+		"binary":      decodeHex(t, stateVector),
+		"unknown tag": decodeHex(t, unknownTagStateVector),
+		"legacy JSON": []byte(legacyState),
+	}
+	for name, data := range vectors {
+		var tradeFinance TradeFinance
+		if err := decodeTradeFinance(data, &tradeFinance); err != nil {
+			t.Errorf("Decoding %s: %v", name, err)
+		} else if tradeFinance != shipped {
+			t.Errorf("Decoded %s as %+v", name, tradeFinance)
+		}
+	}
+}
+
+func TestDecodeTruncatedState(t *testing.T) {
+	// Cut in a value, after a tag and in a two byte length
+	for _, vector := range []string{stateVector[:len(stateVector)-2], "0101", "0101c8"} {
+		var tradeFinance TradeFinance
+		if err := decodeTradeFinance(decodeHex(t, vector), &tradeFinance); err == nil {
+			t.Errorf("Decoded truncated state %s", vector)
+		}
+	}
+}
+
+func TestWriteList(t *testing.T) {
+	// queryBatch of IMLC-000001, a reference not found and a legacy state
+	var buffer bytes.Buffer
+	buffer.WriteByte(encodingVersion)
+	writeEntry(&buffer, encodeTradeFinance(&shipped))
+	writeEntry(&buffer, nil)
+	writeEntry(&buffer, []byte(legacyState))
+	expected := "013b" + stateVector + "00" + "9601" + hex.EncodeToString([]byte(legacyState))
+	if encoded := hex.EncodeToString(buffer.Bytes()); encoded != expected {
+		t.Errorf("Encoded %s, expecting %s", encoded, expected)
+	}
+}
@@ -0,0 +1,168 @@
+package com.cs.fabric.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Reads states encoded by the trade_finance chaincode. The vectors are the
+ * output of its Go encoder, trade_finance_test.go checks the same ones.
+ */
+public class TradeFinanceReaderTest {
+
+	// IMLC-000001, exporter1, shipping1, bank1, bank2, SHIPPED
+	private static final String STATE = "01010b494d4c432d30303030303102096578706f727465723103097368697070696e6731"
+			+ "040562616e6b31050562616e6b32060753484950504544";
+
+	// IMLC-000002, status CREATED, the other fields empty
+	private static final String PARTIAL_STATE = "01010b494d4c432d303030303032060743524541544544";
+
+	// STATE with field 7 "future" after the exporter
+	private static final String UNKNOWN_TAG_STATE = "01010b494d4c432d30303030303102096578706f72746572310706667574757265"
+			+ "03097368697070696e6731040562616e6b31050562616e6b32060753484950504544";
+
+	// STATE as json.Marshal wrote it before the binary encoding
+	private static final String LEGACY_STATE = "{\"reference\":\"IMLC-000001\",\"exporter\":\"exporter1\","
+			+ "\"shippingCorporation\":\"shipping1\",\"negotiationBank\":\"bank1\",\"importBank\":\"bank2\","
+			+ "\"status\":\"SHIPPED\"}";
+
+	// queryBatch of IMLC-000001, a reference not found and a legacy state
+	private static final String LIST = "013b" + STATE + "00" + "9601" + hex(LEGACY_STATE);
+
+	// list page of STATE and PARTIAL_STATE, bookmark of IMLC-000003
+	private static final String PAGE = "013b" + STATE + "17" + PARTIAL_STATE + "00" + hex("SU1MQy0wMDAwMDM=");
+
+	@Test
+	public void readsAllFields() {
+		TradeFinance state = TradeFinanceReader.read(bytes(STATE));
+		assertShipped(state);
+		assertTrue(state.hasStatus("SHIPPED"));
+		assertFalse(state.hasStatus("SHIPPE"));
+		assertFalse(state.hasStatus("CREATED"));
+	}
+
+	@Test
+	public void readsEmptyFields() {
+		TradeFinance state = TradeFinanceReader.read(bytes(PARTIAL_STATE));
+		assertEquals("IMLC-000002", state.getReference());
+		assertEquals("", state.getExporter());
+		assertEquals("", state.getShippingCorporation());
+		assertEquals("", state.getNegotiationBank());
+		assertEquals("", state.getImportBank());
+		assertEquals("CREATED", state.getStatus());
+	}
+
+	@Test
+	public void skipsUnknownTags() {
+		assertShipped(TradeFinanceReader.read(bytes(UNKNOWN_TAG_STATE)));
+	}
+
+	@Test
+	public void readsLegacyJson() {
+		TradeFinance state = TradeFinanceReader.read(ByteString.copyFromUtf8(LEGACY_STATE));
+		assertShipped(state);
+		assertTrue(state.hasStatus("SHIPPED"));
+	}
+
+	@Test
+	public void readsLongFields() {
+		StringBuilder reference = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			reference.append('x');
+		}
+		// 200 is the two byte uvarint c8 01
+		TradeFinance state = TradeFinanceReader.read(bytes("0101c801" + hex(reference.toString()) + "060753484950504544"));
+		assertEquals(reference.toString(), state.getReference());
+		assertEquals("SHIPPED", state.getStatus());
+	}
+
+	@Test
+	public void rejectsTruncatedStates() {
+		// Cut in a value, after a tag and in a two byte length
+		for (String truncated : new String[] { STATE.substring(0, STATE.length() - 2), "0101", "0101c8" }) {
+			try {
+				TradeFinanceReader.read(bytes(truncated));
+				fail("Read truncated state " + truncated);
+			} catch (IllegalArgumentException e) {
+				assertTrue(e.getMessage(), e.getMessage().contains("truncated field"));
+			}
+		}
+	}
+
+	@Test
+	public void readsList() {
+		List<TradeFinance> states = TradeFinanceReader.readList(bytes(LIST));
+		assertEquals(3, states.size());
+		assertShipped(states.get(0));
+		assertNull(states.get(1));
+		assertShipped(states.get(2));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsTruncatedList() {
+		TradeFinanceReader.readList(bytes(LIST.substring(0, LIST.length() - 2)));
+	}
+
+	@Test
+	public void readsPage() {
+		TradeFinancePage page = TradeFinanceReader.readPage(bytes(PAGE));
+		assertEquals(2, page.getStates().size());
+		assertShipped(page.getStates().get(0));
+		assertEquals("IMLC-000002", page.getStates().get(1).getReference());
+		assertEquals("SU1MQy0wMDAwMDM=", page.getBookmark());
+		assertFalse(page.isLast());
+	}
+
+	@Test
+	public void readsLastPage() {
+		TradeFinancePage page = TradeFinanceReader.readPage(bytes("01" + "17" + PARTIAL_STATE + "00"));
+		assertEquals(1, page.getStates().size());
+		assertEquals("", page.getBookmark());
+		assertTrue(page.isLast());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsPageWithoutEnd() {
+		TradeFinanceReader.readPage(bytes("01" + "17" + PARTIAL_STATE));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsUnsupportedVersion() {
+		TradeFinanceReader.readList(bytes("02" + "17" + PARTIAL_STATE));
+	}
+
+	private static void assertShipped(TradeFinance state) {
+		assertEquals("IMLC-000001", state.getReference());
+		assertEquals("exporter1", state.getExporter());
+		assertEquals("shipping1", state.getShippingCorporation());
+		assertEquals("bank1", state.getNegotiationBank());
+		assertEquals("bank2", state.getImportBank());
+		assertEquals("SHIPPED", state.getStatus());
+	}
+
+	private static ByteString bytes(String hex) {
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+		}
+		return ByteString.copyFrom(bytes);
+	}
+
+	private static String hex(String text) {
+		StringBuilder hex = new StringBuilder();
+		for (byte b : text.getBytes(StandardCharsets.UTF_8)) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+}